@@ -0,0 +1,63 @@
+package lunartools.apng;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Analyzing the colours of an animation, and quantizing them to a palette.
+ * <br>The images are added to a new animation before each invocation, which is not measured.
+ *
+ * @author Thomas Mattel
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations=5)
+@Measurement(iterations=10)
+@Fork(1)
+public class AnimDataBenchmark {
+	@Param({"320x240","1280x720"})
+	private String resolution;
+	@Param({"255","100000"})
+	private int numberOfColours;
+	@Param({"0.01","0.2"})
+	private double changeDensity;
+	@Param({"0","255"})
+	private int maximumNumberOfColours;
+	private ArrayList<BufferedImage> images;
+	private Png png;
+
+	@Setup(Level.Trial)
+	public void createImages() {
+		images=BenchmarkImages.createImages(resolution,numberOfColours,changeDensity,10);
+	}
+
+	@Setup(Level.Invocation)
+	public void createAnimation() {
+		ApngBuilder builder=new ApngBuilder().setMaximumNumberOfColours(maximumNumberOfColours);
+		png=builder.buildPng(images.get(0));
+		for(int i=1;i<images.size();i++) {
+			png.addPng(builder.buildPng(images.get(i)));
+		}
+	}
+
+	@Benchmark
+	public Object analyzeColours() {
+		return png.getAnimData().getColourType();
+	}
+
+}
@@ -0,0 +1,88 @@
+package lunartools.apng;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Creates the images of a synthetic animation for the benchmarks.
+ * <br>The first image is a pattern using the given number of colours. Each following image changes the given share
+ * of pixel, as rectangles at random positions, using colours of the same pattern, so the number of colours of the
+ * animation stays the same.
+ *
+ * @author Thomas Mattel
+ */
+class BenchmarkImages {
+	private BenchmarkImages() {}
+
+	/**
+	 * Creates the images of an animation.
+	 *
+	 * @param resolution width and height, e.g. "320x240"
+	 * @param numberOfColours the number of colours, more than 256 for a truecolour animation
+	 * @param changeDensity the share of pixel changed from one image to the next, from 0 to 1
+	 * @param numberOfImages
+	 * @return the images
+	 */
+	static ArrayList<BufferedImage> createImages(String resolution,int numberOfColours,double changeDensity,int numberOfImages) {
+		int width=getWidth(resolution);
+		int height=getHeight(resolution);
+		int[] colours=createColours(numberOfColours);
+		Random random=new Random(numberOfColours*31+width);
+		ArrayList<BufferedImage> images=new ArrayList<BufferedImage>(numberOfImages);
+		int[] pixel=new int[width*height];
+		for(int y=0;y<height;y++) {
+			for(int x=0;x<width;x++) {
+				pixel[y*width+x]=colours[((x/4)*7+(y/4)*13)%colours.length];
+			}
+		}
+		images.add(createImage(pixel,width,height));
+		int numberOfChangedPixel=(int)(changeDensity*width*height);
+		for(int i=1;i<numberOfImages;i++) {
+			int changed=0;
+			while(changed<numberOfChangedPixel) {
+				int rectangleWidth=Math.min(width,1+random.nextInt(32));
+				int rectangleHeight=Math.min(height,1+random.nextInt(32));
+				int rectangleX=random.nextInt(width-rectangleWidth+1);
+				int rectangleY=random.nextInt(height-rectangleHeight+1);
+				int colourOffset=random.nextInt(colours.length);
+				for(int y=rectangleY;y<rectangleY+rectangleHeight;y++) {
+					for(int x=rectangleX;x<rectangleX+rectangleWidth;x++) {
+						pixel[y*width+x]=colours[(x+y+colourOffset)%colours.length];
+					}
+				}
+				changed+=rectangleWidth*rectangleHeight;
+			}
+			images.add(createImage(pixel,width,height));
+		}
+		return images;
+	}
+
+	static int getWidth(String resolution) {
+		return Integer.parseInt(resolution.substring(0,resolution.indexOf('x')));
+	}
+
+	static int getHeight(String resolution) {
+		return Integer.parseInt(resolution.substring(resolution.indexOf('x')+1));
+	}
+
+	static int[] getRgbInts(BufferedImage image) {
+		return image.getRGB(0,0,image.getWidth(),image.getHeight(),null,0,image.getWidth());
+	}
+
+	private static int[] createColours(int numberOfColours) {
+		int[] colours=new int[numberOfColours];
+		for(int i=0;i<numberOfColours;i++) {
+			//spread the colours over the RGB cube, avoiding greyscale
+			colours[i]=((i*97)&0xff)<<16|((i*31+(i>>8))&0xff)<<8|((i*13+(i>>16)+1)&0xff);
+		}
+		return colours;
+	}
+
+	private static BufferedImage createImage(int[] pixel,int width,int height) {
+		BufferedImage image=new BufferedImage(width,height,BufferedImage.TYPE_INT_RGB);
+		image.setRGB(0,0,width,height,pixel,0,width);
+		return image;
+	}
+
+}
@@ -0,0 +1,61 @@
+package lunartools.apng;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import lunartools.apng.chunks.Chunk_IDAT;
+import lunartools.apng.chunks.Chunk_fdAT;
+
+/**
+ * Creating image data chunks, including their CRC, and serializing them.
+ *
+ * @author Thomas Mattel
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations=3)
+@Measurement(iterations=5)
+@Fork(1)
+public class ChunkBenchmark {
+	@Param({"1024","65536","1048576"})
+	private int length;
+	private byte[] imagedata;
+	private Chunk_IDAT chunk_IDAT;
+
+	@Setup
+	public void setup() {
+		imagedata=new byte[length];
+		new Random(length).nextBytes(imagedata);
+		chunk_IDAT=new Chunk_IDAT(imagedata);
+	}
+
+	@Benchmark
+	public byte[] idatToByteArray() {
+		return new Chunk_IDAT(imagedata).toByteArray();
+	}
+
+	@Benchmark
+	public ByteBuffer[] fdatToByteBuffers() {
+		return new Chunk_fdAT(1,chunk_IDAT).toByteBuffers();
+	}
+
+	@Benchmark
+	public byte[] fdatToByteArray() {
+		return new Chunk_fdAT(1,chunk_IDAT).toByteArray();
+	}
+
+}
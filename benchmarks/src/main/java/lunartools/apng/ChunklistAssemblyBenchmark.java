@@ -0,0 +1,61 @@
+package lunartools.apng;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Creating the chunklist of an APNG with many small 8x8 frames (createChunklist), without writing it.
+ * <br>Each frame is tiny, so the measured time is the work done for every frame: optimizing, filtering and
+ * compressing the frame, and assembling its fcTL and fdAT chunks into the chunklist of the animation. The time per
+ * frame should stay the same from 1000 to 100000 frames, growing faster shows work or copying that is not linear in
+ * the number of frames.
+ * <br>The images are added to a new animation before each invocation, which is not measured.
+ *
+ * @author Thomas Mattel
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations=3)
+@Measurement(iterations=5)
+@Fork(1)
+public class ChunklistAssemblyBenchmark {
+	@Param({"1000","10000","100000"})
+	private int numberOfFrames;
+	private ArrayList<BufferedImage> images;
+	private Png png;
+
+	@Setup(Level.Trial)
+	public void createImages() {
+		images=BenchmarkImages.createImages("8x8",255,0.05,numberOfFrames);
+	}
+
+	@Setup(Level.Invocation)
+	public void createAnimation() {
+		ApngBuilder builder=new ApngBuilder();
+		png=builder.buildPng(images.get(0));
+		for(int i=1;i<images.size();i++) {
+			png.addPng(builder.buildPng(images.get(i)));
+		}
+	}
+
+	@Benchmark
+	public int createChunklist() {
+		return png.createChunklist(null).size();
+	}
+
+}
@@ -0,0 +1,57 @@
+package lunartools.apng;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scoring a filtered scanline by deflating it together with the two previous scanlines.
+ *
+ * @author Thomas Mattel
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations=3)
+@Measurement(iterations=5)
+@Fork(1)
+public class FilterScoreBenchmark {
+	@Param({"960","3840"})
+	private int length;
+	@Param({"16","256"})
+	private int numberOfByteValues;
+	private byte[] scanline;
+	private FilterScore4 filterScore;
+
+	@Setup
+	public void setup() {
+		Random random=new Random(length);
+		byte[][] scanlines=new byte[3][length];
+		for(int k=0;k<scanlines.length;k++) {
+			for(int i=0;i<length;i++) {
+				scanlines[k][i]=(byte)random.nextInt(numberOfByteValues);
+			}
+		}
+		filterScore=new FilterScore4();
+		filterScore.addLine(scanlines[0],length);
+		filterScore.addLine(scanlines[1],length);
+		scanline=scanlines[2];
+	}
+
+	@Benchmark
+	public int calcScore() {
+		return filterScore.calcScore(scanline,length);
+	}
+
+}
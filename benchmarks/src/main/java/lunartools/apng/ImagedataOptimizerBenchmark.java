@@ -0,0 +1,61 @@
+package lunartools.apng;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cropping an image, and replacing unchanged pixel with transparent pixel, compared to the previous image.
+ *
+ * @author Thomas Mattel
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations=3)
+@Measurement(iterations=5)
+@Fork(1)
+public class ImagedataOptimizerBenchmark {
+	@Param({"320x240","1280x720"})
+	private String resolution;
+	@Param({"255","100000"})
+	private int numberOfColours;
+	@Param({"0.01","0.2"})
+	private double changeDensity;
+	@Param({"0","3"})
+	private int minimumNumberOfTransparentPixel;
+	private Png png;
+	private int[] reference;
+
+	@Setup
+	public void setup() {
+		ArrayList<BufferedImage> images=BenchmarkImages.createImages(resolution,numberOfColours,changeDensity,2);
+		ApngBuilder builder=new ApngBuilder();
+		Png pngFirst=builder.buildPng(images.get(0));
+		png=builder.buildPng(images.get(1));
+		pngFirst.addPng(png);
+		//analyzes the colours of the animation, before the measurement
+		png.getAnimData().getColourType();
+		reference=pngFirst.getImageData().getRgbInts();
+	}
+
+	@Benchmark
+	public ImagedataOptimizer optimizeImage() {
+		ImagedataOptimizer imagedataOptimizer=new ImagedataOptimizer();
+		imagedataOptimizer.optimizeImage(png,reference,minimumNumberOfTransparentPixel);
+		return imagedataOptimizer;
+	}
+
+}
@@ -0,0 +1,82 @@
+package lunartools.apng;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Filtering the scanlines of an image, with each filter type choice.
+ *
+ * @author Thomas Mattel
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations=3)
+@Measurement(iterations=5)
+@Fork(1)
+public class PngEncoderBenchmark {
+	@Param({"320x240","1280x720"})
+	private String resolution;
+	@Param({"1","3"})
+	private int bytesPerPixel;
+	@Param({"DEFLATE","ABSOLUTE_SUM","ENTROPY"})
+	private String filterScore;
+	private byte[] data;
+	private int width;
+	private int height;
+	private PngEncoder pngEncoder;
+
+	@Setup
+	public void setup() {
+		BufferedImage image=BenchmarkImages.createImages(resolution,bytesPerPixel==1?255:100000,0,1).get(0);
+		width=image.getWidth();
+		height=image.getHeight();
+		int[] rgbInts=BenchmarkImages.getRgbInts(image);
+		data=new byte[rgbInts.length*bytesPerPixel];
+		for(int i=0;i<rgbInts.length;i++) {
+			if(bytesPerPixel==1) {
+				data[i]=(byte)rgbInts[i];
+			}else {
+				data[i*3]=(byte)(rgbInts[i]>>16);
+				data[i*3+1]=(byte)(rgbInts[i]>>8);
+				data[i*3+2]=(byte)rgbInts[i];
+			}
+		}
+		switch(filterScore) {
+		case "DEFLATE":
+			pngEncoder=new PngEncoder(new FilterScore4());
+			break;
+		case "ABSOLUTE_SUM":
+			pngEncoder=new PngEncoder(new FilterScoreAbsoluteSum());
+			break;
+		case "ENTROPY":
+			pngEncoder=new PngEncoder(new FilterScoreEntropy());
+			break;
+		default:
+			throw new IllegalArgumentException("filter score not supported: "+filterScore);
+		}
+	}
+
+	@Benchmark
+	public byte[] encodePng() throws Exception {
+		return pngEncoder.encodePng(data,width,height,bytesPerPixel);
+	}
+
+	@Benchmark
+	public byte[] encodePngFilterTypeNone() {
+		return pngEncoder.encodePngFilterTypeNone(data,width,height,bytesPerPixel);
+	}
+
+}
@@ -17,18 +17,143 @@ import lunartools.colorquantizer.QuantizerAlgorithm;
  */
 class AnimData {
 	private static Logger logger = LoggerFactory.getLogger(AnimData.class);
+	/** Palette index 0 is always reserved for the transparent colour */
+	static final int MAXIMUM_PALETTE_COLOURS=255;
 	private Png png;
 	private int numberOfColours;
 	private ColourRGB unusedColour;
 	private ColourType colourtype;
 	private int bytesPerPixel;
 	private boolean flagIsGreyscale;
-	private ArrayList<ColourRGB> palette;
+	private Palette palette;
+	private ColourSet colourSet;
+	private int numberOfImagesInColourSet;
+	private long analysisNanos;
+	private long quantizationNanos;
+	private final ArrayList<PngEncoder> idlePngEncoders=new ArrayList<PngEncoder>();
 
 	AnimData(Png png) {
 		this.png=png;
 	}
 
+	/**
+	 * Creates the common data of an animation whose images are not known in advance.
+	 * <br>Nothing gets analyzed, the given colour type is used for all images.
+	 * 
+	 * @param colourtype truecolour, greyscale or indexed colour
+	 * @param palette the colours of an indexed colour animation, without the transparent colour, or <code>null</code>
+	 * @param unusedColour a colour not used by any image, or <code>null</code> for indexed colour
+	 */
+	AnimData(ColourType colourtype,int[] palette,ColourRGB unusedColour) {
+		this.colourtype=colourtype;
+		switch(colourtype) {
+		case TRUECOLOUR:
+			this.numberOfColours=0x1000000;
+			this.bytesPerPixel=3;
+			this.unusedColour=unusedColour;
+			break;
+		case GREYSCALE:
+			this.numberOfColours=255;
+			this.bytesPerPixel=1;
+			this.flagIsGreyscale=true;
+			this.unusedColour=unusedColour;
+			break;
+		case INDEXEDCOLOUR:
+			this.numberOfColours=palette.length;
+			this.bytesPerPixel=1;
+			int[] colours=new int[palette.length+1];
+			System.arraycopy(palette, 0, colours, 1, palette.length);
+			this.palette=new Palette(colours);
+			boolean[] colourUsed=new boolean[256];
+			for(int i=0;i<palette.length;i++) {
+				int colour=palette[i]&0xffffff;
+				if((colour>>16)==(colour&0xff) && ((colour>>8)&0xff)==(colour&0xff)) {
+					colourUsed[colour&0xff]=true;
+				}
+			}
+			//any unused grey colour maps to the transparent palette index 0
+			for(int i=0;i<256;i++) {
+				if(!colourUsed[i]) {
+					this.unusedColour=new ColourRGB((i<<16)|(i<<8)|i);
+					break;
+				}
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("not supported colour type: "+colourtype);
+		}
+	}
+
+	/**
+	 * Checks that the pixel of an image of an animation with a declared colour type fit the colour type, while they are
+	 * still hot in the cache. Otherwise they would become transparent pixel in the APNG.
+	 * <br>Truecolour pixel must not use the unused colour, greyscale pixel must be grey and must not use the unused
+	 * grey, indexed colour pixel must be in the palette.
+	 * 
+	 * @param rgbInts pixel of the image as RGB int array
+	 * @throws IllegalArgumentException if a pixel does not fit the colour type
+	 */
+	void checkImageColours(int[] rgbInts) {
+		int unused=unusedColour==null?-1:unusedColour.getColour()&0xffffff;
+		int previousColour=-1;
+		for(int i=0;i<rgbInts.length;i++) {
+			int colour=rgbInts[i]&0xffffff;
+			if(colour==previousColour) {
+				continue;
+			}
+			previousColour=colour;
+			switch(colourtype) {
+			case TRUECOLOUR:
+				if(colour==unused) {
+					throw new IllegalArgumentException("image uses the transparent colour: "+Integer.toHexString(colour)+", at pixel "+i);
+				}
+				break;
+			case GREYSCALE:
+				if((colour>>16)!=(colour&0xff) || ((colour>>8)&0xff)!=(colour&0xff)) {
+					throw new IllegalArgumentException("image is not greyscale: "+Integer.toHexString(colour)+", at pixel "+i);
+				}
+				if(colour==unused) {
+					throw new IllegalArgumentException("image uses the transparent grey: "+(colour&0xff)+", at pixel "+i);
+				}
+				break;
+			default:
+				if(!palette.contains(colour)) {
+					throw new IllegalArgumentException("colour not in palette: "+Integer.toHexString(colour)+", at pixel "+i);
+				}
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Adds the colours of the first image of this animation, unless already done.
+	 * 
+	 * @param rgbInts pixel of the first image as RGB int array
+	 * @see #addImageColours(int[])
+	 */
+	void addFirstImageColours(int[] rgbInts) {
+		if(numberOfImagesInColourSet==0) {
+			addImageColours(rgbInts);
+		}
+	}
+
+	/**
+	 * Adds the colours of the next image of this animation, while its pixel are still hot in the cache.
+	 * <br>Images have to be added in order, starting with the first image. If not all images were added when the
+	 * colours are analyzed, all images get scanned again.
+	 * 
+	 * @param rgbInts pixel of the image as RGB int array
+	 */
+	void addImageColours(int[] rgbInts) {
+		long timeStart=System.nanoTime();
+		if(colourSet==null) {
+			colourSet=new ColourSet();
+		}
+		colourSet.addAll(rgbInts);
+		numberOfImagesInColourSet++;
+		analysisNanos+=System.nanoTime()-timeStart;
+	}
+
 	/**
 	 * The total number of used colours of all images of this animation.
 	 * 
@@ -59,7 +184,7 @@ class AnimData {
 	 * 
 	 * @return the common colour palette of all images of this animation, or null
 	 */
-	ArrayList<ColourRGB> getPalette(){
+	Palette getPalette(){
 		if(numberOfColours==0) {
 			analyzeImages();
 		}
@@ -92,10 +217,26 @@ class AnimData {
 		return colourtype;
 	}
 
+	/**
+	 * Analyzes the colours of all images, reduces the colours if configured, and informs the EncodeListener.
+	 */
 	private void analyzeImages() {
+		long timeStart=System.nanoTime();
+		long analysisNanosStart=analysisNanos;
+		long quantizationNanosStart=quantizationNanos;
+		reduceColours();
+		//the colours added while analyzing are part of the elapsed time
+		analysisNanos=analysisNanosStart+System.nanoTime()-timeStart-(quantizationNanos-quantizationNanosStart);
+		EncodeListener encodeListener=png.getFirstPng().getConfig().getEncodeListener();
+		if(encodeListener!=null) {
+			encodeListener.coloursAnalyzed(analysisNanos,quantizationNanos,numberOfColours);
+		}
+	}
+
+	private void reduceColours() {
 		analyzeColours();
 
-		int numberOfBits=png.getFirstPng().getBuilder().getNumberOfTruecolourBits();
+		int numberOfBits=png.getFirstPng().getConfig().getNumberOfTruecolourBits();
 		if(numberOfBits<8) {
 			if(numberOfColours<256) {
 				logger.debug("ignoring bitmasc, number of colours < 256: {}",numberOfColours);
@@ -107,12 +248,14 @@ class AnimData {
 					ImageData imageData=allImagedata.get(i);
 					int[] imageRgbInts=imageData.getRgbInts();
 					applyBitmasc(imageRgbInts,numberOfBits);
+					imageData.setRgbInts(imageRgbInts);
 				}
+				discardColourSet();
 				analyzeColours();
 			}
 		}
 
-		int maximumNumberOfColours=png.getFirstPng().getBuilder().getMaximumNumberOfColours();
+		int maximumNumberOfColours=png.getFirstPng().getConfig().getMaximumNumberOfColours();
 		if(maximumNumberOfColours!=0) {
 			ArrayList<int[]> arraylistImagesPixelInts = new ArrayList<int[]>();
 			ArrayList<ImageData> allImagedata=png.findAllImagedata();
@@ -130,7 +273,15 @@ class AnimData {
 				arraylistImagesPixelInts.add(imageRgbInts);
 			}
 			logger.debug("calling colour quantizer");
+			long timeStart=System.nanoTime();
+			Object jfrEvent=JfrEvents.beginQuantization();
 			quantizeColours(arraylistImagesPixelInts,width,height,maximumNumberOfColours);
+			JfrEvents.commitQuantization(jfrEvent,arraylistImagesPixelInts.size(),width,height,maximumNumberOfColours);
+			quantizationNanos+=System.nanoTime()-timeStart;
+			for(int k=0;k<allImagedata.size();k++) {
+				allImagedata.get(k).setRgbInts(arraylistImagesPixelInts.get(k));
+			}
+			discardColourSet();
 //			for(int k=0;k<allImagedata.size();k++) {
 //				ImageData imageData=allImagedata.get(k);
 //				int[] imageRgbInts=imageData.getRgbInts();
@@ -143,53 +294,32 @@ class AnimData {
 		}
 	}
 
+	/** The pixel have been changed, or the colours have been analyzed, the colours added so far are no longer needed */
+	private void discardColourSet() {
+		colourSet=null;
+		numberOfImagesInColourSet=0;
+	}
+
 	private void analyzeColours() {
+		Object jfrEvent=JfrEvents.beginColourAnalysis();
 		ArrayList<ImageData> allImagedata=png.findAllImagedata();
-		int[] colourCount=new int[0x1000000];
-		for(int k=0;k<allImagedata.size();k++) {
-			ImageData imageData=allImagedata.get(k);
-			int[] imageRgbInts=imageData.getRgbInts();
-			for(int i=0;i<imageRgbInts.length;i++) {
-				colourCount[imageRgbInts[i]]++;
+		if(colourSet==null || numberOfImagesInColourSet!=allImagedata.size()) {
+			logger.debug("scanning colours of all images");
+			discardColourSet();
+			for(int k=0;k<allImagedata.size();k++) {
+				addImageColours(allImagedata.get(k).getRgbInts());
 			}
 		}
 
-		//first look if there is an unused 'grey'colour, to make the compressor happy
-		for(int i=0;i<256;i++) {
-			int pixel=(i<<16)|(i<<8)|i;
-			if(colourCount[pixel]==0) {
-				unusedColour=new ColourRGB(pixel);
-				logger.debug("unused grey colour found: {}",Integer.toHexString(pixel));
-				break;
-			}
-		}
-		if(unusedColour==null) {
-			for(int i=0;i<colourCount.length;i++) {
-				if(colourCount[i]==0) {
-					unusedColour=new ColourRGB(i);
-					logger.debug("unused RGB colour found: {}",Integer.toHexString(i));
-					break;
-				}
-			}
-		}
+		int colourUnused=colourSet.findUnusedColour();
+		unusedColour=colourUnused==-1?null:new ColourRGB(colourUnused);
+		logger.debug("unused colour found: {}",unusedColour);
 
-		int count=0;
-		ArrayList<ColourRGB> palette=new ArrayList<ColourRGB>();
-		palette.add(new ColourRGB(0));
-		boolean isGreyscale=true;
-		for(int i=0;i<colourCount.length;i++) {
-			if(colourCount[i]>0) {
-				if(palette.size()<256) {
-					ColourRGB color=new ColourRGB(i);
-					palette.add(color);
-					isGreyscale=isGreyscale&color.isGrey();
-				}
-				count++;
-			}
-		}
+		int count=colourSet.size();
+		boolean isGreyscale=colourSet.isGreyscale();
 		numberOfColours=count;
 		logger.debug("number of colours: {}",numberOfColours);
-		if(count>256) {
+		if(count>MAXIMUM_PALETTE_COLOURS) {
 			colourtype=ColourType.TRUECOLOUR;
 			bytesPerPixel=3;
 			logger.debug("colour type is truecolour");
@@ -200,11 +330,17 @@ class AnimData {
 				colourtype=ColourType.GREYSCALE;
 				logger.debug("colour type is greyscale");
 			}else {
-				this.palette=palette;
+				int[] colours=colourSet.toArray(MAXIMUM_PALETTE_COLOURS);
+				int[] palette=new int[colours.length+1];
+				System.arraycopy(colours, 0, palette, 1, colours.length);
+				this.palette=new Palette(palette);
 				colourtype=ColourType.INDEXEDCOLOUR;
 				logger.debug("colour type is indexed colour");
 			}
 		}
+		//the results are kept in the fields, the 2 MB colour set is not kept for the rest of the encoding
+		discardColourSet();
+		JfrEvents.commitColourAnalysis(jfrEvent,allImagedata.size(),numberOfColours);
 	}
 
 	private void applyBitmasc(int[] intImage,int numberOfBits) {
@@ -222,17 +358,17 @@ class AnimData {
 
 	private void quantizeColours(ArrayList<int[]> arraylistImagesPixelInts,int width,int height,int numberOfColours) {
 		GPAC gpac=new GPAC();
-		ApngBuilder builder=png.getFirstPng().getBuilder();
+		ApngConfig config=png.getFirstPng().getConfig();
 		
-		switch(builder.getQuantizerAlgorithm()) {
+		switch(config.getQuantizerAlgorithm()) {
 		case MEDIAN_CUT:
 			gpac.setQuantizerAlgorithm(QuantizerAlgorithm.MEDIAN_CUT);
 			break;
 		default:
-			throw new RuntimeException("colour quantizer algorithm not supported: "+builder.getQuantizerAlgorithm());
+			throw new RuntimeException("colour quantizer algorithm not supported: "+config.getQuantizerAlgorithm());
 		}
 		
-		switch(builder.getDitheringAlgorithm()) {
+		switch(config.getDitheringAlgorithm()) {
 		case NO_DITHERING:
 			gpac.setDitheringAlgorithm(DitheringAlgorithm.NO_DITHERING);
 			break;
@@ -264,7 +400,7 @@ class AnimData {
 			gpac.setDitheringAlgorithm(DitheringAlgorithm.SIERRA_LITE);
 			break;
 		default:
-			throw new RuntimeException("dithering algorithm not supported: "+builder.getDitheringAlgorithm());
+			throw new RuntimeException("dithering algorithm not supported: "+config.getDitheringAlgorithm());
 		}
 		gpac.quantizeColours(arraylistImagesPixelInts,width,height,numberOfColours);
 	}
@@ -279,4 +415,32 @@ class AnimData {
 		return sb.toString();
 	}
 	
+
+	/**
+	 * Returns an idle PngEncoder of this animation, so the scanline buffers are reused by the following images.
+	 * <br>The animation keeps one PngEncoder for each image encoded at the same time.
+	 * 
+	 * @return an idle PngEncoder, or <code>null</code> if there is none
+	 * @see #releasePngEncoder(PngEncoder)
+	 */
+	PngEncoder acquirePngEncoder() {
+		synchronized(idlePngEncoders) {
+			if(idlePngEncoders.isEmpty()) {
+				return null;
+			}
+			return idlePngEncoders.remove(idlePngEncoders.size()-1);
+		}
+	}
+
+	/**
+	 * Keeps the given PngEncoder for the following images of this animation.
+	 * 
+	 * @param pngEncoder a PngEncoder using the filter score algorithm of this animation
+	 */
+	void releasePngEncoder(PngEncoder pngEncoder) {
+		synchronized(idlePngEncoders) {
+			idlePngEncoders.add(pngEncoder);
+		}
+	}
+
 }
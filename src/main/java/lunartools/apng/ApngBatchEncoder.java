@@ -0,0 +1,394 @@
+package lunartools.apng;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lunartools.apng.ApngBuilder.FrameStorage;
+
+/**
+ * Encodes many (A)PNGs concurrently, within a memory budget.
+ * <br>The peak memory of each job is estimated from the image size, the number of images and the settings of its
+ * ApngBuilder. A job is started when its estimate fits into the memory budget, the reserved memory is released when
+ * the job is done. A job larger than the budget is started when no other job is running.
+ * <br>Jobs are started in order of submission, but smaller jobs that fit into the remaining budget may overtake a
+ * job waiting for memory, so they do not queue behind large animations. To not starve the waiting job, it can be
+ * overtaken 16 times, then all following jobs wait until it is started.
+ * <br>By default, jobs run in a work-stealing ForkJoinPool. Any executor can be given instead, e.g. an executor
+ * starting a virtual thread per job (Java 21). The images of a job are encoded concurrently only if a parallelism or
+ * an executor is set in its ApngBuilder, which is usually not needed when encoding many jobs.
+ * <br>The futures returned can be cancelled, a cancelled job that has not started yet is removed, a running job is
+ * stopped like <code>Png.encodeAsync()</code>.
+ * <br><br><b>This is an alpha version, the interface may change.
+ * </b>
+ *
+ * @author Thomas Mattel
+ */
+public class ApngBatchEncoder implements Closeable {
+	private static Logger logger = LoggerFactory.getLogger(ApngBatchEncoder.class);
+	/** The number of times a job waiting for memory can be overtaken by smaller jobs */
+	private static final int MAXIMUM_NUMBER_OF_OVERTAKES=16;
+	/** The pixel of an image as RGB int array, and the BufferedImage read from a file */
+	private static final int BYTES_PER_PIXEL_IMAGE=8;
+	/** The copies of the pixel made by the ImagedataOptimizer, the scanlines, the filtered and compressed data */
+	private static final int BYTES_PER_PIXEL_ENCODING=16;
+	/** The copies of the pixel made by the colour quantizer */
+	private static final int BYTES_PER_PIXEL_QUANTIZER=4;
+	/** The colour set used by the colour analysis */
+	private static final long BYTES_COLOUR_SET=2097152;
+	private final long memoryBudget;
+	private final Executor executor;
+	private final ForkJoinPool forkJoinPool;
+	private final LinkedList<Job> waitingJobs=new LinkedList<Job>();
+	private long reservedMemory;
+	private int numberOfRunningJobs;
+	private boolean closed;
+
+	/**
+	 * Creates a batch encoder running the jobs in a work-stealing pool, with the parallelism of the available
+	 * processors.
+	 *
+	 * @param memoryBudget the memory available for all running jobs, in bytes
+	 */
+	public ApngBatchEncoder(long memoryBudget) {
+		this(memoryBudget,Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a batch encoder running the jobs in a work-stealing pool.
+	 *
+	 * @param memoryBudget the memory available for all running jobs, in bytes
+	 * @param parallelism the maximum number of jobs running concurrently
+	 */
+	public ApngBatchEncoder(long memoryBudget,int parallelism) {
+		if(parallelism<1) {
+			throw new IllegalArgumentException("parallelism must be at least 1, was: "+parallelism);
+		}
+		this.memoryBudget=checkMemoryBudget(memoryBudget);
+		this.forkJoinPool=new ForkJoinPool(parallelism);
+		this.executor=forkJoinPool;
+	}
+
+	/**
+	 * Creates a batch encoder running the jobs with the given executor.
+	 * <br>The executor is not shut down when closing the batch encoder.
+	 *
+	 * @param memoryBudget the memory available for all running jobs, in bytes
+	 * @param executor the executor running the jobs
+	 */
+	public ApngBatchEncoder(long memoryBudget,Executor executor) {
+		if(executor==null) {
+			throw new NullPointerException("executor");
+		}
+		this.memoryBudget=checkMemoryBudget(memoryBudget);
+		this.forkJoinPool=null;
+		this.executor=executor;
+	}
+
+	private static long checkMemoryBudget(long memoryBudget) {
+		if(memoryBudget<1) {
+			throw new IllegalArgumentException("memory budget must be positive, was: "+memoryBudget);
+		}
+		return memoryBudget;
+	}
+
+	/**
+	 * Submits a job creating an APNG from the given image files, using the given builder.
+	 * <br>The images are read when the job is started, using the settings of the builder when the job is submitted. The
+	 * memory is estimated from the size of the first image.
+	 *
+	 * @param builder the builder creating the APNG
+	 * @param imagefiles the images of the animation
+	 * @param delay Delay in milliseconds, the time to wait before the next image of the animation is shown
+	 * @return the future of the APNG data
+	 * @throws IOException if the first image can not be read
+	 */
+	public CompletableFuture<byte[]> submit(ApngBuilder builder,File[] imagefiles,int delay) throws IOException {
+		if(builder==null) {
+			throw new NullPointerException("builder");
+		}
+		if(imagefiles==null || imagefiles.length==0) {
+			throw new IllegalArgumentException("no image files");
+		}
+		ApngConfig config=builder.getConfig();
+		Dimension dimension=readDimension(imagefiles[0]);
+		long memory=estimateMemory(config,dimension.width,dimension.height,imagefiles.length);
+		return submit(new Job(memory,() -> ApngBuilder.buildPng(config,imagefiles,delay)));
+	}
+
+	/**
+	 * Submits a job creating the given (A)PNG, like <code>png.toByteArray()</code>.
+	 * <br>The memory is estimated from the size of the first image, the number of images and the settings of
+	 * the png.
+	 *
+	 * @param png the (A)PNG to create
+	 * @return the future of the (A)PNG data
+	 * @throws IOException if the size of the first image can not be read
+	 */
+	public CompletableFuture<byte[]> submit(Png png) throws IOException {
+		if(png==null) {
+			throw new NullPointerException("png");
+		}
+		ImageData imageData=png.getImageData();
+		//the source of an image evicted by the frame store is released, but its size is kept
+		Dimension dimension=imageData.getImageSource() instanceof File?readDimension((File)imageData.getImageSource()):new Dimension(imageData.getWidth(),imageData.getHeight());
+		return submit(png,estimateMemory(png.getConfig(),dimension.width,dimension.height,png.getAddedPngs().size()+1));
+	}
+
+	/**
+	 * Submits a job creating the given (A)PNG, like <code>png.toByteArray()</code>, with a known peak memory.
+	 *
+	 * @param png the (A)PNG to create
+	 * @param memory the peak memory of the job, in bytes
+	 * @return the future of the (A)PNG data
+	 */
+	public CompletableFuture<byte[]> submit(Png png,long memory) {
+		if(png==null) {
+			throw new NullPointerException("png");
+		}
+		if(memory<0) {
+			throw new IllegalArgumentException("memory must not be negative, was: "+memory);
+		}
+		return submit(new Job(memory,() -> png));
+	}
+
+	private CompletableFuture<byte[]> submit(Job job) {
+		synchronized(this) {
+			if(closed) {
+				throw new IllegalStateException("batch encoder closed");
+			}
+			waitingJobs.add(job);
+		}
+		logger.trace("job submitted, estimated memory: {}",job.memory);
+		//a cancelled job waiting for memory is removed
+		job.future.whenComplete((result,exception) -> {
+			if(job.future.isCancelled()) {
+				startJobs();
+			}
+		});
+		startJobs();
+		return job.future;
+	}
+
+	/**
+	 * Starts the waiting jobs fitting into the memory budget.
+	 * <br>Shuts down the work-stealing pool created by the batch encoder, once it is closed and all jobs are done.
+	 */
+	private void startJobs() {
+		ArrayList<Job> jobsToStart=new ArrayList<Job>();
+		boolean shutdown;
+		synchronized(this) {
+			Iterator<Job> iterator=waitingJobs.iterator();
+			ArrayList<Job> jobsOvertaken=new ArrayList<Job>();
+			while(iterator.hasNext()) {
+				Job job=iterator.next();
+				if(job.future.isDone()) {
+					iterator.remove();
+					continue;
+				}
+				if(reservedMemory+job.memory<=memoryBudget || numberOfRunningJobs==0) {
+					iterator.remove();
+					reservedMemory+=job.memory;
+					numberOfRunningJobs++;
+					jobsToStart.add(job);
+					for(int i=0;i<jobsOvertaken.size();i++) {
+						jobsOvertaken.get(i).numberOfOvertakes++;
+					}
+				}else {
+					if(job.numberOfOvertakes>=MAXIMUM_NUMBER_OF_OVERTAKES) {
+						break;
+					}
+					jobsOvertaken.add(job);
+				}
+			}
+			shutdown=closed && waitingJobs.isEmpty() && numberOfRunningJobs==0;
+		}
+		if(shutdown && forkJoinPool!=null) {
+			forkJoinPool.shutdown();
+			logger.debug("batch encoder pool shut down");
+		}
+		boolean rejected=false;
+		for(int i=0;i<jobsToStart.size();i++) {
+			Job job=jobsToStart.get(i);
+			try {
+				executor.execute(() -> run(job));
+			} catch (RuntimeException e) {
+				releaseMemory(job);
+				job.future.completeExceptionally(e);
+				rejected=true;
+			}
+		}
+		if(rejected) {
+			startJobs();
+		}
+	}
+
+	/**
+	 * Runs the job, the reserved memory is released before the future is completed, so the next jobs can be
+	 * started by the callbacks of the future.
+	 */
+	private void run(Job job) {
+		byte[] result=null;
+		Throwable exception=null;
+		try {
+			if(!job.future.isDone()) {
+				Png png=job.pngSupplier.call();
+				png.setEncodingFuture(job.future);
+				result=png.encode(png::toByteArray);
+			}
+		} catch (CancellationException e) {
+			//the future is cancelled already
+		} catch (Throwable e) {
+			exception=e;
+		}
+		releaseMemory(job);
+		if(exception!=null) {
+			job.future.completeExceptionally(exception);
+		}else if(result!=null) {
+			job.future.complete(result);
+		}
+		startJobs();
+	}
+
+	private synchronized void releaseMemory(Job job) {
+		reservedMemory-=job.memory;
+		numberOfRunningJobs--;
+	}
+
+	/**
+	 * Estimates the peak memory of creating an (A)PNG.
+	 * <li>the pixel of all images, or the memory budget of the frame store
+	 * <li>the colour set of the colour analysis, and the copies of the colour quantizer
+	 * <li>the images encoded concurrently, including the candidates of the optimizations
+	 * <li>the compressed data, estimated as half a byte per pixel
+	 *
+	 * @param config the settings of the (A)PNG
+	 * @param width the width of the images
+	 * @param height the height of the images
+	 * @param numberOfImages the number of images
+	 * @return the estimated peak memory in bytes
+	 */
+	static long estimateMemory(ApngConfig config,int width,int height,int numberOfImages) {
+		long numberOfPixel=(long)width*height;
+		long memory=numberOfPixel*numberOfImages*BYTES_PER_PIXEL_IMAGE;
+		if(config.getFrameStorage()!=FrameStorage.HEAP) {
+			memory=Math.min(memory,config.getMemoryBudget()+2*numberOfPixel*BYTES_PER_PIXEL_IMAGE);
+		}
+		if(config.isPngEncoderEnabled()) {
+			memory+=BYTES_COLOUR_SET;
+			if(config.getMaximumNumberOfColours()!=0) {
+				memory+=numberOfPixel*numberOfImages*BYTES_PER_PIXEL_QUANTIZER;
+			}
+		}
+		int numberOfCandidates=1;
+		if(config.isTransparentPixelOptimizationEnabled()) {
+			numberOfCandidates*=PngService.getNumberOfTransparentPixelCandidates();
+		}
+		if(config.isDisposeOpOptimizationEnabled()) {
+			numberOfCandidates*=3;
+		}
+		int numberOfImagesConcurrently=Math.min(numberOfImages,config.getExecutor()!=null?Runtime.getRuntime().availableProcessors():config.getParallelism());
+		memory+=numberOfPixel*numberOfImagesConcurrently*numberOfCandidates*BYTES_PER_PIXEL_ENCODING;
+		memory+=numberOfPixel*numberOfImages/2;
+		return memory;
+	}
+
+	/**
+	 * Reads the size of an image, without reading the pixel if possible.
+	 *
+	 * @param imagefile
+	 * @return the size of the image
+	 * @throws IOException
+	 */
+	private static Dimension readDimension(File imagefile) throws IOException {
+		try(ImageInputStream imageInputStream=ImageIO.createImageInputStream(imagefile)){
+			if(imageInputStream!=null) {
+				Iterator<ImageReader> readers=ImageIO.getImageReaders(imageInputStream);
+				if(readers.hasNext()) {
+					ImageReader reader=readers.next();
+					try {
+						reader.setInput(imageInputStream);
+						return new Dimension(reader.getWidth(0),reader.getHeight(0));
+					}finally {
+						reader.dispose();
+					}
+				}
+			}
+		}
+		BufferedImage bufferedImage=ImageIO.read(imagefile);
+		if(bufferedImage==null) {
+			throw new IOException("not supported image file: "+imagefile);
+		}
+		return new Dimension(bufferedImage.getWidth(),bufferedImage.getHeight());
+	}
+
+	/** @return the memory reserved by the running jobs, in bytes */
+	public synchronized long getReservedMemory() {
+		return reservedMemory;
+	}
+
+	/** @return the number of jobs running */
+	public synchronized int getNumberOfRunningJobs() {
+		return numberOfRunningJobs;
+	}
+
+	/** @return the number of jobs waiting for memory */
+	public synchronized int getNumberOfWaitingJobs() {
+		return waitingJobs.size();
+	}
+
+	/**
+	 * Closes the batch encoder, no more jobs can be submitted.
+	 * <br>Submitted jobs are still run. The work-stealing pool created by the batch encoder is shut down when all
+	 * jobs are done.
+	 */
+	@Override
+	public void close() {
+		synchronized(this) {
+			if(closed) {
+				return;
+			}
+			closed=true;
+		}
+		//the pool is shut down by the last job, or right away if no job is left
+		startJobs();
+	}
+
+	/**
+	 * A submitted job.
+	 */
+	private static class Job {
+		final long memory;
+		final PngSupplier pngSupplier;
+		final CompletableFuture<byte[]> future=new CompletableFuture<byte[]>();
+		/** The number of jobs started while this job was waiting for memory */
+		int numberOfOvertakes;
+
+		Job(long memory,PngSupplier pngSupplier) {
+			this.memory=memory;
+			this.pngSupplier=pngSupplier;
+		}
+	}
+
+	@FunctionalInterface
+	private interface PngSupplier {
+		Png call() throws IOException;
+	}
+
+}
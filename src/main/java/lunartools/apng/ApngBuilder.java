@@ -4,12 +4,22 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.concurrent.Executor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import lunartools.apng.chunks.ChunkFactory;
+import lunartools.apng.chunks.Chunk_IHDR.ColourType;
+
 /**
  * Builds an APNG (Animated Portable Network Graphic).
+ * <br>A builder is thread-safe, one configured builder can be shared, e.g. by the request threads of a server, to
+ * build many animations concurrently. Each Png object and ApngStreamWriter takes an immutable snapshot of the
+ * settings when it is built (see <code>getConfig()</code>), changing a setting only affects the objects built
+ * afterwards. All images of an animation should be built with the same settings, the settings of the first image
+ * are used for the whole animation, e.g. the parallelism and the colour quantizer.
  * <br><br><b>This is an alpha version, the interface may change.
  * </b>
  * 
@@ -21,15 +31,64 @@ public class ApngBuilder {
 	private DitheringAlgorithm ditheringAlgorithm=DitheringAlgorithm.SIERRA;
 	private boolean flagPngEncoderEnabled=true;
 	private boolean flagReencodePngFilesEnabled=true;
+	private boolean flagPaletteFilteringEnabled=true;
+	private boolean flagDisposeOpOptimizationEnabled;
+	private boolean flagTransparentPixelOptimizationEnabled;
+	private int maximumNumberOfSubFrames=1;
 	private int minimumNumberOfTransparentPixel=3;
 	private int numberOfTruecolourBits=8;
 	private int maximumNumberOfColours;
 	private int imageDataChunkSize=65536;
+	private FilterScoreAlgorithm filterScoreAlgorithm=FilterScoreAlgorithm.DEFLATE;
+	private int parallelism=1;
+	private int deflateParallelism=1;
+	private Executor executor;
+	private FrameStorage frameStorage=FrameStorage.HEAP;
+	private long memoryBudget=268435456;
+	private ChunkFactory chunkFactory=new ChunkFactory();
+	private EncodeListener encodeListener;
+	/** The snapshot of the current settings, or <code>null</code> if a setting has changed since */
+	private ApngConfig config;
 	
 	public enum QuantizerAlgorithm{
 		MEDIAN_CUT
 	}
 	
+	/**
+	 * The algorithm used by the PngEncoder to choose the filter type of each scanline.
+	 * <br>Measured on a reference set of nine truecolour images (a photo, screenshots, charts and diagrams, from
+	 * 142x181 up to 2100x2100 pixel), compared to DEFLATE:
+	 * <li>DEFLATE: slowest, filter selection takes longer than the final compression
+	 * <li>ENTROPY: compressed size between -5% and +10% (median +-0%), filter selection 4 to 13 times faster
+	 * <li>ABSOLUTE_SUM: compressed size between -1% and +29% (median +2%), filter selection 8 to 20 times faster
+	 * <br>Images with 256 or less colours are only filtered if palette filtering is enabled (default).
+	 */
+	public enum FilterScoreAlgorithm{
+		/** Deflates the previous two and the current scanline, the score is the compressed size */
+		DEFLATE,
+		/** Estimates the number of bits needed to encode the scanline */
+		ENTROPY,
+		/** The sum of absolute values of the scanline bytes, as suggested by the PNG specification */
+		ABSOLUTE_SUM
+	}
+
+	/**
+	 * Where the pixel of the images of an animation are kept until the animation is encoded.
+	 * <br>Images are read when added to the animation, to skip identical images. With <code>HEAP</code>, all pixel
+	 * stay on the heap, which takes about 8 bytes per pixel, a 1080p image takes 16 MB.
+	 * <br>With <code>OFF_HEAP</code> or <code>MAPPED_FILE</code>, only the most recently used images are kept on the
+	 * heap, up to the memory budget. The pixel of all other images are moved out of the heap, and read again when
+	 * needed.
+	 */
+	public enum FrameStorage{
+		/** All pixel are kept on the heap */
+		HEAP,
+		/** Pixel exceeding the memory budget are kept in direct buffers, limited by -XX:MaxDirectMemorySize */
+		OFF_HEAP,
+		/** Pixel exceeding the memory budget are kept in a memory mapped temporary file */
+		MAPPED_FILE
+	}
+
 	public enum DitheringAlgorithm {
 		NO_DITHERING,
 		SIMPLE_DITHERING1,
@@ -43,8 +102,9 @@ public class ApngBuilder {
 		SIERRA_LITE
 	}
 
-	public ApngBuilder setQuantizerAlgorithm(QuantizerAlgorithm quantizerAlgorithm) {
+	public synchronized ApngBuilder setQuantizerAlgorithm(QuantizerAlgorithm quantizerAlgorithm) {
 		this.quantizerAlgorithm=quantizerAlgorithm;
+		config=null;
 		return this;
 	}
 	
@@ -52,8 +112,31 @@ public class ApngBuilder {
 		return quantizerAlgorithm;
 	}
 	
-	public ApngBuilder setDitheringAlgorithm(DitheringAlgorithm ditheringAlgorithm) {
+	/**
+	 * Sets the algorithm used by the PngEncoder to choose the filter type of each scanline.
+	 * <br>Default is <code>DEFLATE</code>, which produces the smallest files, but is the slowest.
+	 * 
+	 * @param filterScoreAlgorithm
+	 * @return
+	 * @see FilterScoreAlgorithm
+	 */
+	public synchronized ApngBuilder setFilterScoreAlgorithm(FilterScoreAlgorithm filterScoreAlgorithm) {
+		if(filterScoreAlgorithm==null) {
+			throw new NullPointerException("filterScoreAlgorithm");
+		}
+		this.filterScoreAlgorithm=filterScoreAlgorithm;
+		logger.debug("FilterScoreAlgorithm: {}",this.filterScoreAlgorithm);
+		config=null;
+		return this;
+	}
+
+	FilterScoreAlgorithm getFilterScoreAlgorithm() {
+		return filterScoreAlgorithm;
+	}
+
+	public synchronized ApngBuilder setDitheringAlgorithm(DitheringAlgorithm ditheringAlgorithm) {
 		this.ditheringAlgorithm=ditheringAlgorithm;
+		config=null;
 		return this;
 	}
 
@@ -78,9 +161,10 @@ public class ApngBuilder {
 	 * @param pngEncoder
 	 * @return
 	 */
-	public ApngBuilder enablePngEncoder(boolean pngEncoder) {
+	public synchronized ApngBuilder enablePngEncoder(boolean pngEncoder) {
 		this.flagPngEncoderEnabled=pngEncoder;
 		logger.debug("PngEncoderEnabled: {}",this.flagPngEncoderEnabled);
+		config=null;
 		return this;
 	}
 
@@ -107,9 +191,10 @@ public class ApngBuilder {
 	 * @param reencodePngFiles
 	 * @return
 	 */
-	public ApngBuilder enableReencodePngFiles(boolean reencodePngFiles) {
+	public synchronized ApngBuilder enableReencodePngFiles(boolean reencodePngFiles) {
 		this.flagReencodePngFilesEnabled=reencodePngFiles;
 		logger.debug("ReencodePngFilesEnabled: {}",this.flagReencodePngFilesEnabled);
+		config=null;
 		return this;
 	}
 
@@ -125,6 +210,64 @@ public class ApngBuilder {
 		return flagReencodePngFilesEnabled;
 	}
 
+	/**
+	 * enable/disable adaptive filtering of indexed colour (palette) images.
+	 * <br>
+	 * <br>enabled (default): The PngEncoder chooses the filter type of each scanline, like for greyscale and truecolour images.
+	 * <br>
+	 * <br>disabled: All scanlines use filter type 0 (None), as recommended by the PNG specification for indexed colour
+	 * images. This is faster, and for images with many unrelated palette indices (e.g. dithered images) it might
+	 * produce a smaller filesize.
+	 * 
+	 * @param paletteFiltering
+	 * @return
+	 */
+	public synchronized ApngBuilder enablePaletteFiltering(boolean paletteFiltering) {
+		this.flagPaletteFilteringEnabled=paletteFiltering;
+		logger.debug("PaletteFilteringEnabled: {}",this.flagPaletteFilteringEnabled);
+		config=null;
+		return this;
+	}
+
+	/**
+	 * @return <code>true</code> if the scanlines of indexed colour images are filtered adaptively, <code>false</code> if filter type 0 is used
+	 */
+	boolean isPaletteFilteringEnabled() {
+		return flagPaletteFilteringEnabled;
+	}
+
+	/**
+	 * enable/disable choosing the dispose operation of each frame of an animation.
+	 * <br>
+	 * <br>enabled: Each image is encoded compared to each output buffer the dispose operation of the previous frame
+	 * can produce: the previous image (NONE), the output buffer before the previous frame (PREVIOUS), or the previous
+	 * image with the area of the previous frame cleared (BACKGROUND). The smallest result is used. Animations
+	 * switching between images, e.g. blinking or oscillating, get a lot smaller. Images without transparent pixel
+	 * use the SOURCE blend operation. This triples the encoding work, the candidates of an image are encoded
+	 * concurrently if a parallelism or an executor is set, but the images are encoded one after another.
+	 * <br>
+	 * <br>disabled (default): Each image is encoded compared to the previous image, all frames use the dispose operation
+	 * NONE and the blend operation OVER.
+	 * <br>
+	 * <br>Only used with the PngEncoder, and not if PNG files are used without reencoding.
+	 * 
+	 * @param disposeOpOptimization
+	 * @return
+	 */
+	public synchronized ApngBuilder enableDisposeOpOptimization(boolean disposeOpOptimization) {
+		this.flagDisposeOpOptimizationEnabled=disposeOpOptimization;
+		logger.debug("DisposeOpOptimizationEnabled: {}",this.flagDisposeOpOptimizationEnabled);
+		config=null;
+		return this;
+	}
+
+	/**
+	 * @return <code>true</code> if the dispose operation of each frame is chosen to get the smallest animation
+	 */
+	boolean isDisposeOpOptimizationEnabled() {
+		return flagDisposeOpOptimizationEnabled;
+	}
+
 	/**
 	 * The minimum number of pixel in a row that have not changed, before replacing them with transparent pixel.
 	 * <br>When <code>0</code>, no pixel gets replaced with transparent pixel.
@@ -134,15 +277,16 @@ public class ApngBuilder {
 	 * <br>This is a lossless transformation.
 	 * <br>Please note: Depending on the animation, there is also a chance that the data size will increase, specifically if
 	 * the animation is a movie sequence.
-	 * <br>The encoder should try both ways and take the shorter, this is not implemented yet.
+	 * <br>To try several ways and take the shortest, enable the transparent pixel optimization.
 	 * <br>However, if it´s a cartoon-like animation, or an animation in front of a static background, the size gets reduced drastically.
 	 * 
 	 * @param transparentPixelEnabled
 	 * @return
 	 */
-	public ApngBuilder setMinimumNumberOfTransparentPixel(int minimumNumberOfTransparentPixel) {
+	public synchronized ApngBuilder setMinimumNumberOfTransparentPixel(int minimumNumberOfTransparentPixel) {
 		this.minimumNumberOfTransparentPixel=minimumNumberOfTransparentPixel;
 		logger.debug("TransparentPixelEnabled: {}",this.minimumNumberOfTransparentPixel);
+		config=null;
 		return this;
 	}
 
@@ -151,6 +295,67 @@ public class ApngBuilder {
 		return minimumNumberOfTransparentPixel;
 	}
 
+	/**
+	 * enable/disable choosing the minimum number of transparent pixel for each image.
+	 * <br>
+	 * <br>enabled: Each image, except the first one, is encoded with the minimum number of transparent pixel set by
+	 * setMinimumNumberOfTransparentPixel, and with 0 (cropping only), 1, 4 and 16. The smallest result is used.
+	 * This takes up to five times the encoding work, the candidates are encoded concurrently if a parallelism or an
+	 * executor is set.
+	 * <br>
+	 * <br>disabled (default): All images are encoded with the minimum number of transparent pixel set by
+	 * setMinimumNumberOfTransparentPixel.
+	 * <br>
+	 * <br>Only used with the PngEncoder.
+	 * 
+	 * @param transparentPixelOptimization
+	 * @return
+	 * @see #setMinimumNumberOfTransparentPixel(int)
+	 */
+	public synchronized ApngBuilder enableTransparentPixelOptimization(boolean transparentPixelOptimization) {
+		this.flagTransparentPixelOptimizationEnabled=transparentPixelOptimization;
+		logger.debug("TransparentPixelOptimizationEnabled: {}",this.flagTransparentPixelOptimizationEnabled);
+		config=null;
+		return this;
+	}
+
+	/**
+	 * @return <code>true</code> if the minimum number of transparent pixel is chosen for each image
+	 */
+	boolean isTransparentPixelOptimizationEnabled() {
+		return flagTransparentPixelOptimizationEnabled;
+	}
+
+	/**
+	 * The maximum number of sub-frames an image may be split into.
+	 * <br>
+	 * <br>If the changed pixel of an image are in separate areas, e.g. two small sprites moving in opposite corners,
+	 * a single frame covers the whole area between them. With sub-frames, each area is encoded as a separate frame,
+	 * the image is split only if this is smaller.
+	 * <br>All sub-frames but the last are shown with a delay of 0, so the APNG contains more frames than images were
+	 * added. Most decoders show them together, but some may render zero delay frames differently.
+	 * <br>
+	 * <br>Default is 1, images are not split.
+	 * <br>
+	 * <br>Only used with the PngEncoder.
+	 * 
+	 * @param maximumNumberOfSubFrames the maximum number of frames of an image, at least <code>1</code>
+	 * @return
+	 */
+	public synchronized ApngBuilder setMaximumNumberOfSubFrames(int maximumNumberOfSubFrames) {
+		if(maximumNumberOfSubFrames<1) {
+			throw new IllegalArgumentException("maximum number of sub-frames must be at least 1, was "+maximumNumberOfSubFrames);
+		}
+		this.maximumNumberOfSubFrames=maximumNumberOfSubFrames;
+		logger.debug("Maximum number of sub-frames: {}",this.maximumNumberOfSubFrames);
+		config=null;
+		return this;
+	}
+
+	int getMaximumNumberOfSubFrames() {
+		return maximumNumberOfSubFrames;
+	}
+
 	/**
 	 * The number of bits for each colour component red/green/blue.
 	 * <br>Default is 8 for those three components to get 8*3=24 bit truecolour.
@@ -160,9 +365,10 @@ public class ApngBuilder {
 	 * @param numberOfBits
 	 * @return
 	 */
-	public ApngBuilder setNumberOfTruecolourBits(int numberOfBits) {
+	public synchronized ApngBuilder setNumberOfTruecolourBits(int numberOfBits) {
 		this.numberOfTruecolourBits=numberOfBits;
 		logger.debug("TrueColour number of bits: {}",this.numberOfTruecolourBits);
+		config=null;
 		return this;
 	}
 
@@ -181,9 +387,10 @@ public class ApngBuilder {
 	 * @param numberOfColours
 	 * @return
 	 */
-	public ApngBuilder setMaximumNumberOfColours(int numberOfColours) {
+	public synchronized ApngBuilder setMaximumNumberOfColours(int numberOfColours) {
 		this.maximumNumberOfColours=numberOfColours;
 		logger.debug("Number of colours for quantizer: {}",this.maximumNumberOfColours);
+		config=null;
 		return this;
 	}
 
@@ -200,15 +407,198 @@ public class ApngBuilder {
 	 * @param imageDataChunkSize
 	 * @return
 	 */
-	public ApngBuilder setImageDataChunkSize(int imageDataChunkSize) {
+	public synchronized ApngBuilder setImageDataChunkSize(int imageDataChunkSize) {
 		this.imageDataChunkSize=imageDataChunkSize;
 		logger.debug("Image data chunk size: {}",this.imageDataChunkSize);
+		config=null;
 		return this;
 	}
 	
 	int getImageDataChunkSize() {
 		return this.imageDataChunkSize;
 	}
+
+	/**
+	 * Sets the number of threads used to encode the images of an animation.
+	 * <br>An image only depends on itself and the previous image, so the images can be optimized, filtered and compressed concurrently.
+	 * <br>The default is <code>1</code>, all images are encoded by the calling thread.
+	 * <br>The resulting APNG is the same, regardless of the number of threads.
+	 * <br>This setting is ignored if an executor has been set.
+	 * 
+	 * @param parallelism the number of threads, at least <code>1</code>
+	 * @return
+	 * @see #setExecutor(Executor)
+	 */
+	public synchronized ApngBuilder setParallelism(int parallelism) {
+		if(parallelism<1) {
+			throw new IllegalArgumentException("parallelism must be at least 1, was "+parallelism);
+		}
+		this.parallelism=parallelism;
+		logger.debug("Parallelism: {}",this.parallelism);
+		config=null;
+		return this;
+	}
+
+	/** The number of threads used to encode the images of an animation */
+	int getParallelism() {
+		return this.parallelism;
+	}
+
+	/**
+	 * Sets the number of threads used to compress the imagedata of a single image.
+	 * <br>The imagedata of large images gets split into blocks of at least 128k, which are compressed concurrently
+	 * and then joined to one compressed stream.
+	 * <br>The default is <code>1</code>, the imagedata is compressed in one piece.
+	 * <br>Splitting costs some compression ratio, the compressed imagedata is typically less than 1% larger.
+	 * <br>The blocks are compressed on the executor, if one has been set, or else on a pool of threads created for the
+	 * encoding and shut down when it is done.
+	 * 
+	 * @param deflateParallelism the number of threads, at least <code>1</code>
+	 * @return
+	 */
+	public synchronized ApngBuilder setDeflateParallelism(int deflateParallelism) {
+		if(deflateParallelism<1) {
+			throw new IllegalArgumentException("deflate parallelism must be at least 1, was "+deflateParallelism);
+		}
+		this.deflateParallelism=deflateParallelism;
+		logger.debug("Deflate parallelism: {}",this.deflateParallelism);
+		config=null;
+		return this;
+	}
+
+	/** The number of threads used to compress the imagedata of a single image */
+	int getDeflateParallelism() {
+		return this.deflateParallelism;
+	}
+
+	/**
+	 * Sets the executor used to encode the images of an animation concurrently.
+	 * <br>The executor also runs the candidates of the transparent pixel optimization and the deflate blocks of an
+	 * image. Tasks waited for but not started by the executor are run by the waiting thread, so any executor works,
+	 * even one with a single thread.
+	 * <br>The executor is not shut down by APNG-builder.
+	 * <br>The resulting APNG is the same as when encoding all images in the calling thread.
+	 * <br>Set to <code>null</code> (default) to use the parallelism setting.
+	 * 
+	 * @param executor the executor to encode the images, or <code>null</code>
+	 * @return
+	 * @see #setParallelism(int)
+	 */
+	public synchronized ApngBuilder setExecutor(Executor executor) {
+		this.executor=executor;
+		logger.debug("Executor: {}",this.executor);
+		config=null;
+		return this;
+	}
+
+	/** The executor used to encode the images of an animation, or <code>null</code> */
+	Executor getExecutor() {
+		return this.executor;
+	}
+
+	/**
+	 * Sets the factory creating the chunk objects of PNG files, e.g. with constructors of custom chunk types registered.
+	 * <br>Default is a factory for all chunks supported by APNG-builder.
+	 * <br>Each Png object uses an unmodifiable copy of the factory, taken when it is built.
+	 * 
+	 * @param chunkFactory
+	 * @return
+	 * @see ChunkFactory#register(String, lunartools.apng.chunks.ChunkConstructor)
+	 */
+	public synchronized ApngBuilder setChunkFactory(ChunkFactory chunkFactory) {
+		if(chunkFactory==null) {
+			throw new NullPointerException("chunkFactory");
+		}
+		this.chunkFactory=chunkFactory;
+		logger.debug("ChunkFactory: {}",this.chunkFactory);
+		config=null;
+		return this;
+	}
+
+	ChunkFactory getChunkFactory() {
+		return chunkFactory;
+	}
+
+	/**
+	 * Sets a listener, which is informed about the timings and sizes of the colour analysis and of each image, e.g.
+	 * to monitor which encoding stage takes the most time.
+	 * <br>Default is no listener.
+	 * 
+	 * @param encodeListener the listener, or <code>null</code> to remove the listener
+	 * @return
+	 */
+	public synchronized ApngBuilder setEncodeListener(EncodeListener encodeListener) {
+		this.encodeListener=encodeListener;
+		logger.debug("EncodeListener: {}",this.encodeListener);
+		config=null;
+		return this;
+	}
+
+	/** The listener informed about the timings and sizes of each image, or <code>null</code> */
+	EncodeListener getEncodeListener() {
+		return encodeListener;
+	}
+
+	/**
+	 * Sets where the pixel of the images of an animation are kept until the animation is encoded.
+	 * <br>Default is <code>HEAP</code>.
+	 * 
+	 * @param frameStorage
+	 * @return
+	 * @see FrameStorage
+	 * @see #setMemoryBudget(long)
+	 */
+	public synchronized ApngBuilder setFrameStorage(FrameStorage frameStorage) {
+		if(frameStorage==null) {
+			throw new NullPointerException("frameStorage");
+		}
+		this.frameStorage=frameStorage;
+		logger.debug("FrameStorage: {}",this.frameStorage);
+		config=null;
+		return this;
+	}
+
+	FrameStorage getFrameStorage() {
+		return frameStorage;
+	}
+
+	/**
+	 * Sets the number of bytes the pixel of the images of an animation may take on the heap.
+	 * <br>Only used if the frame storage is not <code>HEAP</code>. Default is 256 MB.
+	 * <br>The images being encoded, and the images the colour quantizer is applied to, are always on the heap, so
+	 * the budget may be exceeded temporarily.
+	 * 
+	 * @param memoryBudget the number of bytes, at least <code>1</code>
+	 * @return
+	 * @see #setFrameStorage(FrameStorage)
+	 */
+	public synchronized ApngBuilder setMemoryBudget(long memoryBudget) {
+		if(memoryBudget<1) {
+			throw new IllegalArgumentException("memory budget must be at least 1, was "+memoryBudget);
+		}
+		this.memoryBudget=memoryBudget;
+		logger.debug("Memory budget: {}",this.memoryBudget);
+		config=null;
+		return this;
+	}
+
+	long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * Returns an immutable snapshot of the current settings.
+	 * <br>The snapshot is taken again only after a setting has changed, or a constructor has been registered with the
+	 * chunk factory, so Png objects built with the same settings share the same snapshot.
+	 * 
+	 * @return the snapshot of the current settings
+	 */
+	public synchronized ApngConfig getConfig() {
+		if(config==null || config.getChunkFactory()!=chunkFactory.toUnmodifiable()) {
+			config=new ApngConfig(this);
+		}
+		return config;
+	}
 	
 	/**
 	 * Builds a PNG from a given file.
@@ -220,13 +610,17 @@ public class ApngBuilder {
 	 * @throws IOException
 	 */
  	public Png buildPng(File imagefile) throws IOException{
+		return buildPng(getConfig(),imagefile);
+	}
+
+	private static Png buildPng(ApngConfig config,File imagefile) throws IOException{
 		if(imagefile==null) {
 			throw new NullPointerException("image");
 		}
 		if(!imagefile.exists()) {
 			throw new FileNotFoundException(imagefile.getAbsolutePath());
 		}
-		return new Png(this,imagefile);
+		return new Png(config,imagefile);
 	}
 
 	/**
@@ -240,7 +634,7 @@ public class ApngBuilder {
 		if(bufferedImage==null) {
 			throw new NullPointerException("image");
 		}
-		return new Png(this,bufferedImage);
+		return new Png(getConfig(),bufferedImage);
 	}
 
 	/**
@@ -256,28 +650,93 @@ public class ApngBuilder {
 	 * @throws IOException
 	 */
 	public Png buildPng(File[] imagefiles, int delay) throws IOException{
+		return buildPng(getConfig(),imagefiles,delay);
+	}
+
+	/**
+	 * Builds a PNG from a given file array, using the given settings.
+	 * 
+	 * @param config the settings
+	 * @param imagefiles Any image files that Java can read
+	 * @param delay Delay in milliseconds, the time to wait before the next image of the animation is shown
+	 * @return
+	 * @throws IOException
+	 */
+	static Png buildPng(ApngConfig config,File[] imagefiles, int delay) throws IOException{
 		if(imagefiles==null) {
 			throw new NullPointerException();
 		}
-		Png apng=buildPng(imagefiles[0]);
+		Png apng=buildPng(config,imagefiles[0]);
 		apng.setDelay(delay);
 		for(int i=1;i<imagefiles.length;i++) {
-			Png png=buildPng(imagefiles[i]);
+			Png png=buildPng(config,imagefiles[i]);
 			apng.addPng(png);
 			png.setDelay(delay);
 		}
 		return apng;
 	}
 
+	/**
+	 * Builds a writer, that writes a truecolour APNG to the given channel image by image.
+	 * <br>The transparent colour is used to replace unchanged pixel, so it must not be used by any image, otherwise
+	 * adding the image throws an IllegalArgumentException.
+	 * 
+	 * @param channel the channel to write the APNG to, e.g. a FileChannel
+	 * @param transparentColour an RGB colour that is not used by any image of the animation
+	 * @return the writer
+	 * @see ApngStreamWriter
+	 */
+	public ApngStreamWriter buildTruecolourStreamWriter(SeekableByteChannel channel, int transparentColour) {
+		if(channel==null) {
+			throw new NullPointerException("channel");
+		}
+		return new ApngStreamWriter(getConfig(),channel,new AnimData(ColourType.TRUECOLOUR,null,new ColourRGB(transparentColour)));
+	}
+
+	/**
+	 * Builds a writer, that writes a greyscale APNG to the given channel image by image.
+	 * <br>All images must be greyscale images. The transparent grey is used to replace unchanged pixel, so it must not
+	 * be used by any image, otherwise adding the image throws an IllegalArgumentException.
+	 * 
+	 * @param channel the channel to write the APNG to, e.g. a FileChannel
+	 * @param transparentGrey an 8 bit grey value that is not used by any image of the animation
+	 * @return the writer
+	 * @see ApngStreamWriter
+	 */
+	public ApngStreamWriter buildGreyscaleStreamWriter(SeekableByteChannel channel, int transparentGrey) {
+		if(channel==null) {
+			throw new NullPointerException("channel");
+		}
+		if(transparentGrey<0 || transparentGrey>255) {
+			throw new IllegalArgumentException("allowed grey value 0 to 255, was "+transparentGrey);
+		}
+		return new ApngStreamWriter(getConfig(),channel,new AnimData(ColourType.GREYSCALE,null,new ColourRGB((transparentGrey<<16)|(transparentGrey<<8)|transparentGrey)));
+	}
+
+	/**
+	 * Builds a writer, that writes an indexed colour APNG to the given channel image by image.
+	 * <br>All images must only use colours of the given palette, otherwise adding the image throws an
+	 * IllegalArgumentException.
+	 * 
+	 * @param channel the channel to write the APNG to, e.g. a FileChannel
+	 * @param palette 1 to 255 RGB colours, the palette entry for the transparent colour is added by the writer
+	 * @return the writer
+	 * @see ApngStreamWriter
+	 */
+	public ApngStreamWriter buildIndexedColourStreamWriter(SeekableByteChannel channel, int[] palette) {
+		if(channel==null) {
+			throw new NullPointerException("channel");
+		}
+		if(palette==null) {
+			throw new NullPointerException("palette");
+		}
+		if(palette.length<1 || palette.length>255) {
+			throw new IllegalArgumentException("allowed number of palette colours 1 to 255, was "+palette.length);
+		}
+		return new ApngStreamWriter(getConfig(),channel,new AnimData(ColourType.INDEXEDCOLOUR,palette,null));
+	}
+
 	public String toString() {
-		StringBuffer sb=new StringBuffer();
-		sb.append(this.getClass().getSimpleName()+": ");
-		sb.append("TrueColour bits: "+numberOfTruecolourBits);
-		sb.append(", PngEncoder enabled: "+flagPngEncoderEnabled);
-		sb.append(", ReEncode PNG: "+flagReencodePngFilesEnabled);
-		sb.append(", TransparentPixel: "+minimumNumberOfTransparentPixel);
-		sb.append(", NumberOfColours: "+(maximumNumberOfColours==0?"TrueColour":maximumNumberOfColours));
-		sb.append(", ImageDataChunkSize: "+imageDataChunkSize);
-		return sb.toString();
+		return getConfig().toString();
 	}
 }
@@ -0,0 +1,195 @@
+package lunartools.apng;
+
+import java.util.concurrent.Executor;
+
+import lunartools.apng.ApngBuilder.DitheringAlgorithm;
+import lunartools.apng.ApngBuilder.FilterScoreAlgorithm;
+import lunartools.apng.ApngBuilder.FrameStorage;
+import lunartools.apng.ApngBuilder.QuantizerAlgorithm;
+import lunartools.apng.chunks.ChunkFactory;
+
+/**
+ * An immutable snapshot of the settings of an ApngBuilder.
+ * <br>Each Png object keeps the snapshot taken when it was built, so changing the builder afterwards does not affect
+ * Png objects already built, not even while they are encoded.
+ * <br>The chunk factory is an unmodifiable copy of the factory of the builder. The executor and the encode listener
+ * are not copied, the snapshot refers to the same objects as the builder.
+ * <br><br><b>This is an alpha version, the interface may change.
+ * </b>
+ *
+ * @author Thomas Mattel
+ * @see ApngBuilder#getConfig()
+ */
+public final class ApngConfig {
+	private final QuantizerAlgorithm quantizerAlgorithm;
+	private final DitheringAlgorithm ditheringAlgorithm;
+	private final boolean flagPngEncoderEnabled;
+	private final boolean flagReencodePngFilesEnabled;
+	private final boolean flagPaletteFilteringEnabled;
+	private final boolean flagDisposeOpOptimizationEnabled;
+	private final boolean flagTransparentPixelOptimizationEnabled;
+	private final int maximumNumberOfSubFrames;
+	private final int minimumNumberOfTransparentPixel;
+	private final int numberOfTruecolourBits;
+	private final int maximumNumberOfColours;
+	private final int imageDataChunkSize;
+	private final FilterScoreAlgorithm filterScoreAlgorithm;
+	private final int parallelism;
+	private final int deflateParallelism;
+	private final Executor executor;
+	private final FrameStorage frameStorage;
+	private final long memoryBudget;
+	private final ChunkFactory chunkFactory;
+	private final EncodeListener encodeListener;
+
+	/**
+	 * Takes a snapshot of the settings of the given builder.
+	 * <br>The caller holds the lock of the builder, so the snapshot is consistent.
+	 *
+	 * @param builder the builder
+	 */
+	ApngConfig(ApngBuilder builder) {
+		this.quantizerAlgorithm=builder.getQuantizerAlgorithm();
+		this.ditheringAlgorithm=builder.getDitheringAlgorithm();
+		this.flagPngEncoderEnabled=builder.isPngEncoderEnabled();
+		this.flagReencodePngFilesEnabled=builder.isReencodePngFilesEnabled();
+		this.flagPaletteFilteringEnabled=builder.isPaletteFilteringEnabled();
+		this.flagDisposeOpOptimizationEnabled=builder.isDisposeOpOptimizationEnabled();
+		this.flagTransparentPixelOptimizationEnabled=builder.isTransparentPixelOptimizationEnabled();
+		this.maximumNumberOfSubFrames=builder.getMaximumNumberOfSubFrames();
+		this.minimumNumberOfTransparentPixel=builder.getMinimumNumberOfTransparentPixel();
+		this.numberOfTruecolourBits=builder.getNumberOfTruecolourBits();
+		this.maximumNumberOfColours=builder.getMaximumNumberOfColours();
+		this.imageDataChunkSize=builder.getImageDataChunkSize();
+		this.filterScoreAlgorithm=builder.getFilterScoreAlgorithm();
+		this.parallelism=builder.getParallelism();
+		this.deflateParallelism=builder.getDeflateParallelism();
+		this.executor=builder.getExecutor();
+		this.frameStorage=builder.getFrameStorage();
+		this.memoryBudget=builder.getMemoryBudget();
+		this.chunkFactory=builder.getChunkFactory().toUnmodifiable();
+		this.encodeListener=builder.getEncodeListener();
+	}
+
+	/** @return the algorithm reducing the colours of truecolour images */
+	public QuantizerAlgorithm getQuantizerAlgorithm() {
+		return quantizerAlgorithm;
+	}
+
+	/** @return the dithering algorithm used when reducing the colours */
+	public DitheringAlgorithm getDitheringAlgorithm() {
+		return ditheringAlgorithm;
+	}
+
+	/** @return <code>true</code> if PngEncoder is used to produce the PNG data */
+	public boolean isPngEncoderEnabled() {
+		return flagPngEncoderEnabled;
+	}
+
+	/** @return <code>true</code> if PngEncoder is allowed to reencode PNG data. */
+	public boolean isReencodePngFilesEnabled() {
+		return flagReencodePngFilesEnabled;
+	}
+
+	/** @return <code>true</code> if the scanlines of indexed colour images are filtered adaptively, <code>false</code> if filter type 0 is used */
+	public boolean isPaletteFilteringEnabled() {
+		return flagPaletteFilteringEnabled;
+	}
+
+	/** @return <code>true</code> if the dispose operation of each frame is chosen to get the smallest animation */
+	public boolean isDisposeOpOptimizationEnabled() {
+		return flagDisposeOpOptimizationEnabled;
+	}
+
+	/** @return <code>true</code> if the minimum number of transparent pixel is chosen for each image */
+	public boolean isTransparentPixelOptimizationEnabled() {
+		return flagTransparentPixelOptimizationEnabled;
+	}
+
+	/** @return the maximum number of sub-frames an image is split into */
+	public int getMaximumNumberOfSubFrames() {
+		return maximumNumberOfSubFrames;
+	}
+
+	/** @return the minimum number of unchanged pixel, before they get replaced with transparent pixel */
+	public int getMinimumNumberOfTransparentPixel() {
+		return minimumNumberOfTransparentPixel;
+	}
+
+	/** @return the number of bits for each colour component red/green/blue */
+	public int getNumberOfTruecolourBits() {
+		return numberOfTruecolourBits;
+	}
+
+	/** @return the maximum colours of the animation (all images), 0 for truecolour */
+	public int getMaximumNumberOfColours() {
+		return maximumNumberOfColours;
+	}
+
+	/** @return the maximum size of the data of an image data chunk */
+	public int getImageDataChunkSize() {
+		return imageDataChunkSize;
+	}
+
+	/** @return the algorithm choosing the filter type of each scanline */
+	public FilterScoreAlgorithm getFilterScoreAlgorithm() {
+		return filterScoreAlgorithm;
+	}
+
+	/** @return the number of threads used to encode the images of an animation */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/** @return the number of threads used to compress the imagedata of a single image */
+	public int getDeflateParallelism() {
+		return deflateParallelism;
+	}
+
+	/** @return the executor used to encode the images of an animation, or <code>null</code> */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/** @return where the images of an animation are kept while it is encoded */
+	public FrameStorage getFrameStorage() {
+		return frameStorage;
+	}
+
+	/** @return the memory used for the images on the heap, before they are moved to a file */
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/** @return the unmodifiable factory creating the chunk objects of PNG files */
+	public ChunkFactory getChunkFactory() {
+		return chunkFactory;
+	}
+
+	/** @return the listener informed about the timings and sizes of each image, or <code>null</code> */
+	public EncodeListener getEncodeListener() {
+		return encodeListener;
+	}
+
+	@Override
+	public String toString() {
+		StringBuffer sb=new StringBuffer();
+		sb.append(this.getClass().getSimpleName()+": ");
+		sb.append("TrueColour bits: "+numberOfTruecolourBits);
+		sb.append(", PngEncoder enabled: "+flagPngEncoderEnabled);
+		sb.append(", ReEncode PNG: "+flagReencodePngFilesEnabled);
+		sb.append(", PaletteFiltering: "+flagPaletteFilteringEnabled);
+		sb.append(", DisposeOpOptimization: "+flagDisposeOpOptimizationEnabled);
+		sb.append(", TransparentPixel: "+minimumNumberOfTransparentPixel);
+		sb.append(", TransparentPixelOptimization: "+flagTransparentPixelOptimizationEnabled);
+		sb.append(", SubFrames: "+maximumNumberOfSubFrames);
+		sb.append(", NumberOfColours: "+(maximumNumberOfColours==0?"TrueColour":maximumNumberOfColours));
+		sb.append(", ImageDataChunkSize: "+imageDataChunkSize);
+		sb.append(", FilterScoreAlgorithm: "+filterScoreAlgorithm);
+		sb.append(", Parallelism: "+(executor==null?parallelism:"Executor"));
+		sb.append(", DeflateParallelism: "+deflateParallelism);
+		sb.append(", FrameStorage: "+frameStorage+(frameStorage==FrameStorage.HEAP?"":"("+memoryBudget+")"));
+		sb.append(", EncodeListener: "+(encodeListener!=null));
+		return sb.toString();
+	}
+}
@@ -0,0 +1,179 @@
+package lunartools.apng;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lunartools.apng.chunks.Chunk;
+import lunartools.apng.chunks.Chunk_IDAT;
+import lunartools.apng.chunks.Chunk_IEND;
+import lunartools.apng.chunks.Chunk_acTL;
+import lunartools.apng.chunks.Chunk_fcTL;
+import lunartools.apng.chunks.Chunk_fcTL.ApngBlendOperation;
+import lunartools.apng.chunks.Chunk_fcTL.ApngDisposeOperation;
+
+/**
+ * Writes an APNG to a channel, image by image.
+ * <br>Each image is encoded as soon as it is added, using the previous image as reference, and is written as soon as
+ * the next different image is added. So, regardless of the length of the animation, only two images are held in memory.
+ * <br>As the images are not known in advance, the colour type is declared when creating the writer. The colour
+ * quantizer and the reduction of truecolour bits are not applied, and the PngEncoder is always used.
+ * <br>The number of frames in the animation control chunk is written when closing the writer.
+ * <br><br><b>This is an alpha version, the interface may change.
+ * </b>
+ *
+ * @author Thomas Mattel
+ */
+public class ApngStreamWriter implements Closeable {
+	private static Logger logger = LoggerFactory.getLogger(ApngStreamWriter.class);
+	private static final byte[] PNG_SIGNATURE=new byte[] {(byte)0x89,(byte)0x50,(byte)0x4e,(byte)0x47,(byte)0x0d,(byte)0x0a,(byte)0x1a,(byte)0x0a};
+	private ApngConfig config;
+	private SeekableByteChannel channel;
+	private AnimData animData;
+	private Png pngPending;
+	private int width;
+	private int height;
+	private int numberOfFrames;
+	private int sequenceNumber;
+	private long position_acTL;
+	private boolean closed;
+
+	/**
+	 * Creates a writer for an APNG of the given colour type.
+	 *
+	 * @param config the settings of the calling ApngBuilder object
+	 * @param channel the channel to write the APNG to
+	 * @param animData the common data of all images of the animation
+	 */
+	ApngStreamWriter(ApngConfig config,SeekableByteChannel channel,AnimData animData) {
+		this.config=config;
+		this.channel=channel;
+		this.animData=animData;
+	}
+
+	/**
+	 * Adds an image to the animation.
+	 * <br>If the image is identical to the previous image, the delay of the previous image is extended instead.
+	 * <br>The pixel must fit the colour type of the writer, otherwise an IllegalArgumentException is thrown and the
+	 * image is not added.
+	 *
+	 * @param bufferedImage the image to add
+	 * @param delay Delay in milliseconds, the time to wait before the next image of the animation is shown
+	 * @throws IOException
+	 * @throws IllegalArgumentException if the size of the image differs from the first image, or a pixel does not fit
+	 * the colour type
+	 */
+	public void addImage(BufferedImage bufferedImage, int delay) throws IOException {
+		if(bufferedImage==null) {
+			throw new NullPointerException("image");
+		}
+		if(closed) {
+			throw new IOException("writer closed");
+		}
+		if(pngPending!=null && (bufferedImage.getWidth()!=width || bufferedImage.getHeight()!=height)) {
+			throw new IllegalArgumentException("image size must be "+width+"x"+height+", was "+bufferedImage.getWidth()+"x"+bufferedImage.getHeight());
+		}
+		Png png=new Png(config,bufferedImage,animData);
+		png.setDelay(delay);
+		animData.checkImageColours(png.getImageData().getRgbInts());
+		if(pngPending==null) {
+			this.width=bufferedImage.getWidth();
+			this.height=bufferedImage.getHeight();
+		}else {
+			if(Arrays.equals(pngPending.getImageData().getRgbInts(),png.getImageData().getRgbInts())) {
+				pngPending.setDelay(pngPending.getDelay()+delay);
+				logger.trace("skipped identical image");
+				return;
+			}
+			writePending();
+			png.setPreviousPng(pngPending);
+			png.setFrameIndex(pngPending.getFrameIndex()+1);
+		}
+		png.runEncoding(png::getChunklist);
+		//the image is encoded, the previous image is no longer needed
+		png.setPreviousPng(null);
+		pngPending=png;
+	}
+
+	/** @return the number of frames written so far */
+	public int getNumberOfFrames() {
+		return numberOfFrames;
+	}
+
+	/**
+	 * Writes the last image, the end chunk, and the number of frames to the animation control chunk.
+	 * <br>The channel gets closed.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		if(closed) {
+			return;
+		}
+		closed=true;
+		try {
+			if(pngPending==null) {
+				throw new IOException("no image added");
+			}
+			writePending();
+			pngPending=null;
+			write(new Chunk_IEND());
+			long positionEnd=channel.position();
+			channel.position(position_acTL);
+			write(new Chunk_acTL(numberOfFrames,0));
+			channel.position(positionEnd);
+			logger.debug("APNG written, number of frames: {}",numberOfFrames);
+		}finally {
+			channel.close();
+		}
+	}
+
+	private void writePending() throws IOException {
+		ArrayList<Chunk> chunklist=pngPending.getChunklist();
+		if(numberOfFrames==0) {
+			write(PNG_SIGNATURE);
+			int i=0;
+			while(!(chunklist.get(i) instanceof Chunk_IDAT)) {
+				write(chunklist.get(i++));
+			}
+			position_acTL=channel.position();
+			write(new Chunk_acTL(1,0));//number of frames is written on close
+			write(new Chunk_fcTL(sequenceNumber,width,height,0,0,pngPending.getDelay(),1000,ApngDisposeOperation.NONE,ApngBlendOperation.SOURCE));
+			for(;i<chunklist.size();i++) {
+				if(chunklist.get(i) instanceof Chunk_IDAT) {
+					write(chunklist.get(i));
+				}
+			}
+		}else {
+			ArrayList<Chunk> frameChunks=new ArrayList<Chunk>();
+			sequenceNumber=pngPending.addFrameChunks(frameChunks,sequenceNumber+1)-1;
+			for(int i=0;i<frameChunks.size();i++) {
+				write(frameChunks.get(i));
+			}
+		}
+		numberOfFrames+=pngPending.getNumberOfFrames();
+		pngPending.notifyEncodeListener();
+	}
+
+	private void write(Chunk chunk) throws IOException {
+		Object jfrEvent=JfrEvents.beginChunkWrite();
+		Png.write(channel,chunk.toByteBuffers());
+		JfrEvents.commitChunkWrite(jfrEvent,chunk.getClass(),chunk.getChunkLength());
+	}
+
+	private void write(byte[] bytes) throws IOException {
+		ByteBuffer byteBuffer=ByteBuffer.wrap(bytes);
+		while(byteBuffer.hasRemaining()) {
+			channel.write(byteBuffer);
+		}
+	}
+
+}
@@ -0,0 +1,97 @@
+package lunartools.apng;
+
+/**
+ * The set of RGB colours used by the images of an animation.
+ * <br>Stored as presence bitset of all 2^24 RGB colours, which takes 2 MB, instead of counting each colour.
+ *
+ * @author Thomas Mattel
+ */
+class ColourSet {
+	private static final int NUMBER_OF_COLOURS=0x1000000;
+	private long[] bits=new long[NUMBER_OF_COLOURS>>6];
+	private int size;
+	private boolean flagIsGreyscale=true;
+
+	/**
+	 * Adds all colours of the given pixel.
+	 *
+	 * @param rgbInts pixel as RGB int array
+	 */
+	void addAll(int[] rgbInts) {
+		long[] bits=this.bits;
+		int size=this.size;
+		boolean isGreyscale=this.flagIsGreyscale;
+		for(int i=0;i<rgbInts.length;i++) {
+			int colour=rgbInts[i]&0xffffff;
+			long mask=1L<<colour;
+			int index=colour>>>6;
+			long word=bits[index];
+			if((word&mask)==0) {
+				bits[index]=word|mask;
+				size++;
+				isGreyscale=isGreyscale && (colour>>16)==(colour&0xff) && ((colour>>8)&0xff)==(colour&0xff);
+			}
+		}
+		this.size=size;
+		this.flagIsGreyscale=isGreyscale;
+	}
+
+	/**
+	 * @param colour RGB colour
+	 * @return <code>true</code> if the colour is used
+	 */
+	boolean contains(int colour) {
+		colour&=0xffffff;
+		return (bits[colour>>>6]&(1L<<colour))!=0;
+	}
+
+	/** @return <code>true</code> if all colours are grey */
+	boolean isGreyscale() {
+		return flagIsGreyscale;
+	}
+
+	/** @return the number of different colours */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns an unused colour, preferring grey colours, to make the compressor happy.
+	 *
+	 * @return an unused RGB colour, or <code>-1</code> if all colours are used
+	 */
+	int findUnusedColour() {
+		for(int i=0;i<256;i++) {
+			int grey=(i<<16)|(i<<8)|i;
+			if(!contains(grey)) {
+				return grey;
+			}
+		}
+		for(int i=0;i<bits.length;i++) {
+			if(bits[i]!=-1L) {
+				return (i<<6)+Long.numberOfTrailingZeros(~bits[i]);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the used colours in ascending order, up to the given maximum number.
+	 *
+	 * @param maximumNumberOfColours the maximum number of colours returned
+	 * @return used RGB colours in ascending order
+	 */
+	int[] toArray(int maximumNumberOfColours) {
+		int[] colours=new int[Math.min(size,maximumNumberOfColours)];
+		int count=0;
+		for(int i=0;i<bits.length && count<colours.length;i++) {
+			long word=bits[i];
+			while(word!=0 && count<colours.length) {
+				colours[count++]=(i<<6)+Long.numberOfTrailingZeros(word);
+				word&=word-1;
+			}
+		}
+		return colours;
+	}
+
+}
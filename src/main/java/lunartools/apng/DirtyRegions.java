@@ -0,0 +1,127 @@
+package lunartools.apng;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+
+/**
+ * Finds separate areas of changed pixel, e.g. two small sprites moving in opposite corners.
+ * <br>The image is divided into tiles. Connected tiles containing changed pixel form an area, overlapping areas
+ * are merged, and if there are too many areas, the two areas whose bounding box grows the least are merged.
+ *
+ * @author Thomas Mattel
+ */
+class DirtyRegions {
+	private static final int TILE_SIZE=16;
+
+	private DirtyRegions() {}
+
+	/**
+	 * Finds the areas of changed pixel.
+	 *
+	 * @param intImage the image as RGB int array
+	 * @param intReference the reference image as RGB int array
+	 * @param width the width of the images
+	 * @param height the height of the images
+	 * @param maximumNumberOfAreas the maximum number of areas returned
+	 * @return the areas containing all changed pixel, not overlapping, might be empty
+	 */
+	static ArrayList<Rectangle> findAreas(int[] intImage,int[] intReference,int width,int height,int maximumNumberOfAreas) {
+		int tilesX=(width+TILE_SIZE-1)/TILE_SIZE;
+		int tilesY=(height+TILE_SIZE-1)/TILE_SIZE;
+		boolean[] dirty=new boolean[tilesX*tilesY];
+		int index=0;
+		for(int y=0;y<height;y++) {
+			int indexTileLine=(y/TILE_SIZE)*tilesX;
+			for(int x=0;x<width;x++,index++) {
+				if(intImage[index]!=intReference[index]) {
+					dirty[indexTileLine+x/TILE_SIZE]=true;
+				}
+			}
+		}
+
+		ArrayList<Rectangle> areas=new ArrayList<Rectangle>();
+		int[] stack=new int[dirty.length];
+		for(int i=0;i<dirty.length;i++) {
+			if(!dirty[i]) {
+				continue;
+			}
+			//flood fill of all tiles connected to this tile, including diagonal neighbours
+			Rectangle area=null;
+			int stackSize=0;
+			stack[stackSize++]=i;
+			dirty[i]=false;
+			while(stackSize>0) {
+				int tile=stack[--stackSize];
+				int tileX=tile%tilesX;
+				int tileY=tile/tilesX;
+				if(area==null) {
+					area=new Rectangle(tileX,tileY,1,1);
+				}else {
+					area.add(new Rectangle(tileX,tileY,1,1));
+				}
+				for(int ny=Math.max(0,tileY-1);ny<=Math.min(tilesY-1,tileY+1);ny++) {
+					for(int nx=Math.max(0,tileX-1);nx<=Math.min(tilesX-1,tileX+1);nx++) {
+						int neighbour=ny*tilesX+nx;
+						if(dirty[neighbour]) {
+							dirty[neighbour]=false;
+							stack[stackSize++]=neighbour;
+						}
+					}
+				}
+			}
+			areas.add(area);
+		}
+
+		mergeOverlappingAreas(areas);
+		while(areas.size()>maximumNumberOfAreas) {
+			mergeClosestAreas(areas);
+			mergeOverlappingAreas(areas);
+		}
+
+		Rectangle image=new Rectangle(0,0,width,height);
+		for(int i=0;i<areas.size();i++) {
+			Rectangle area=areas.get(i);
+			areas.set(i,new Rectangle(area.x*TILE_SIZE,area.y*TILE_SIZE,area.width*TILE_SIZE,area.height*TILE_SIZE).intersection(image));
+		}
+		return areas;
+	}
+
+	private static void mergeOverlappingAreas(ArrayList<Rectangle> areas) {
+		boolean merged;
+		do {
+			merged=false;
+			for(int i=0;i<areas.size() && !merged;i++) {
+				for(int k=i+1;k<areas.size();k++) {
+					if(areas.get(i).intersects(areas.get(k))) {
+						areas.get(i).add(areas.remove(k));
+						merged=true;
+						break;
+					}
+				}
+			}
+		}while(merged);
+	}
+
+	private static void mergeClosestAreas(ArrayList<Rectangle> areas) {
+		int bestI=0;
+		int bestK=1;
+		long bestGrowth=Long.MAX_VALUE;
+		for(int i=0;i<areas.size();i++) {
+			for(int k=i+1;k<areas.size();k++) {
+				Rectangle union=areas.get(i).union(areas.get(k));
+				long growth=area(union)-area(areas.get(i))-area(areas.get(k));
+				if(growth<bestGrowth) {
+					bestGrowth=growth;
+					bestI=i;
+					bestK=k;
+				}
+			}
+		}
+		areas.get(bestI).add(areas.remove(bestK));
+	}
+
+	private static long area(Rectangle rectangle) {
+		return (long)rectangle.width*rectangle.height;
+	}
+
+}
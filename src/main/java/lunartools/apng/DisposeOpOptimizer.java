@@ -0,0 +1,210 @@
+package lunartools.apng;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lunartools.apng.chunks.Chunk_fcTL.ApngBlendOperation;
+import lunartools.apng.chunks.Chunk_fcTL.ApngDisposeOperation;
+
+/**
+ * Chooses the dispose operation of each frame of an animation, to get the smallest animation.
+ * <br>The dispose operation of a frame defines the output buffer the next frame is rendered to:
+ * <li>NONE: the previous image
+ * <li>PREVIOUS: the output buffer the previous frame was rendered to
+ * <li>BACKGROUND: the previous image, with the area of the previous frame cleared to transparent black
+ * <br>Each image is encoded compared to each of these output buffers, the smallest result is kept, which sets the
+ * dispose operation of the previous frame. The choice is made image by image, the candidates of an image are
+ * encoded concurrently.
+ * <br>The blend operation is SOURCE if the encoded image has no transparent pixel, which decoders render faster.
+ *
+ * @author Thomas Mattel
+ */
+class DisposeOpOptimizer {
+	private static Logger logger = LoggerFactory.getLogger(DisposeOpOptimizer.class);
+	/** A cleared pixel of the output buffer, which differs from all RGB colours, so it is never 'unchanged' */
+	private static final int CLEARED_PIXEL=0x01000000;
+	private final Png firstPng;
+	private final Executor executor;
+
+	/**
+	 * Creates an optimizer for the given animation.
+	 *
+	 * @param firstPng the first Png object of the animation, containing all added Png objects
+	 * @param executor the executor to encode the candidates of an image, or <code>null</code> to encode in the calling thread
+	 */
+	DisposeOpOptimizer(Png firstPng,Executor executor) {
+		this.firstPng=firstPng;
+		this.executor=executor;
+	}
+
+	/**
+	 * The optimizer needs the PngEncoder for all images, so PNG files must be reencoded.
+	 *
+	 * @param firstPng the first Png object of the animation
+	 * @return <code>true</code> if the dispose operations of the animation can be optimized
+	 */
+	static boolean isSupported(Png firstPng) {
+		ApngConfig config=firstPng.getConfig();
+		if(!config.isPngEncoderEnabled()) {
+			return false;
+		}
+		if(config.isReencodePngFilesEnabled()) {
+			return true;
+		}
+		ArrayList<ImageData> allImagedata=firstPng.findAllImagedata();
+		try {
+			for(int i=0;i<allImagedata.size();i++) {
+				Object imageSource=allImagedata.get(i).getImageSource();
+				if(imageSource instanceof File && Png.isPngFile((File)imageSource)) {
+					logger.debug("dispose operations not optimized, PNG files are not reencoded");
+					return false;
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("error reading image file",e);
+		}
+		return true;
+	}
+
+	/**
+	 * Encodes all added Png objects, and sets their dispose and blend operations.
+	 * <br>The first Png object must be processed already.
+	 *
+	 * @param progressCallback
+	 */
+	void optimize(ProgressCallback progressCallback) {
+		ArrayList<Png> listPng=firstPng.getAddedPngs();
+		int width=firstPng.getImageData().getWidth();
+		Png pngPrevious=firstPng;
+		//the first frame covers the whole output buffer, so PREVIOUS would be the same as BACKGROUND
+		int[] outputBufferPrevious=null;
+		int[] numberOfFrames=new int[ApngDisposeOperation.values().length];
+		for(int i=0;i<listPng.size();i++) {
+			if(progressCallback!=null) {
+				progressCallback.setProgressStep(i+2);
+			}
+			firstPng.checkCancelled();
+			Png png=listPng.get(i);
+			int[] imagePrevious=pngPrevious.getImageData().getRgbInts();
+			ArrayList<Candidate> candidates=new ArrayList<Candidate>(3);
+			candidates.add(new Candidate(png,ApngDisposeOperation.NONE,imagePrevious));
+			if(outputBufferPrevious!=null) {
+				candidates.add(new Candidate(png,ApngDisposeOperation.PREVIOUS,restoreFrameArea(imagePrevious,outputBufferPrevious,width,pngPrevious)));
+			}
+			candidates.add(new Candidate(png,ApngDisposeOperation.BACKGROUND,clearFrameArea(imagePrevious,width,pngPrevious)));
+			encode(candidates);
+
+			Candidate candidateBest=candidates.get(0);
+			for(int k=1;k<candidates.size();k++) {
+				if(candidates.get(k).encodedFrame.getSize()<candidateBest.encodedFrame.getSize()) {
+					candidateBest=candidates.get(k);
+				}
+			}
+			logger.trace("frame {}: dispose operation of previous frame: {}, size: {}",i+1,candidateBest.disposeOperation,candidateBest.encodedFrame.getSize());
+			numberOfFrames[candidateBest.disposeOperation.ordinal()]++;
+			pngPrevious.setDisposeOperation(candidateBest.disposeOperation);
+			EncodedFrame encodedFrame=candidateBest.encodedFrame;
+			png.setEncodedFrame(encodedFrame);
+			png.setBlendOperation(encodedFrame.hasTransparentPixel()?ApngBlendOperation.OVER:ApngBlendOperation.SOURCE);
+			if(i>0) {
+				pngPrevious.getImageData().reset();
+			}
+			outputBufferPrevious=candidateBest.outputBuffer;
+			pngPrevious=png;
+		}
+		logger.debug("dispose operations: NONE: {}, BACKGROUND: {}, PREVIOUS: {}",numberOfFrames[ApngDisposeOperation.NONE.ordinal()],numberOfFrames[ApngDisposeOperation.BACKGROUND.ordinal()],numberOfFrames[ApngDisposeOperation.PREVIOUS.ordinal()]);
+	}
+
+	private void encode(ArrayList<Candidate> candidates) {
+		if(executor==null) {
+			for(int i=0;i<candidates.size();i++) {
+				candidates.get(i).encode();
+			}
+			return;
+		}
+		//candidates not started by the executor are encoded by this thread
+		ArrayList<ForkedTask<Void>> tasks=new ArrayList<ForkedTask<Void>>(candidates.size());
+		for(int i=0;i<candidates.size();i++) {
+			final Candidate candidate=candidates.get(i);
+			tasks.add(ForkedTask.fork(() -> {
+				candidate.encode();
+				return null;
+			},executor));
+		}
+		for(int i=0;i<tasks.size();i++) {
+			tasks.get(i).join();
+		}
+	}
+
+	/**
+	 * Returns the output buffer after disposing the given frame with BACKGROUND.
+	 * <br>If the frame is split into sub-frames, only the last sub-frame is disposed.
+	 *
+	 * @param image the image shown by the frame
+	 * @param width the width of the image
+	 * @param png the frame
+	 * @return a copy of the image, the area of the frame cleared
+	 */
+	private int[] clearFrameArea(int[] image,int width,Png png) {
+		int[] outputBuffer=image.clone();
+		Rectangle area=png.getLastFrameArea();
+		int offset=area.y*width+area.x;
+		for(int y=0;y<area.height;y++) {
+			Arrays.fill(outputBuffer,offset,offset+area.width,CLEARED_PIXEL);
+			offset+=width;
+		}
+		return outputBuffer;
+	}
+
+	/**
+	 * Returns the output buffer after disposing the given frame with PREVIOUS.
+	 * <br>If the frame is split into sub-frames, only the last sub-frame is disposed, the other sub-frames remain.
+	 *
+	 * @param image the image shown by the frame
+	 * @param outputBufferPrevious the output buffer the frame was rendered to
+	 * @param width the width of the image
+	 * @param png the frame
+	 * @return the output buffer
+	 */
+	private int[] restoreFrameArea(int[] image,int[] outputBufferPrevious,int width,Png png) {
+		if(png.getNumberOfFrames()==1) {
+			return outputBufferPrevious;
+		}
+		int[] outputBuffer=image.clone();
+		Rectangle area=png.getLastFrameArea();
+		int offset=area.y*width+area.x;
+		for(int y=0;y<area.height;y++) {
+			System.arraycopy(outputBufferPrevious,offset,outputBuffer,offset,area.width);
+			offset+=width;
+		}
+		return outputBuffer;
+	}
+
+	/**
+	 * An image encoded compared to the output buffer of one dispose operation of the previous frame.
+	 */
+	private static class Candidate {
+		private final Png png;
+		private final ApngDisposeOperation disposeOperation;
+		private final int[] outputBuffer;
+		private EncodedFrame encodedFrame;
+
+		private Candidate(Png png,ApngDisposeOperation disposeOperation,int[] outputBuffer) {
+			this.png=png;
+			this.disposeOperation=disposeOperation;
+			this.outputBuffer=outputBuffer;
+		}
+
+		private void encode() {
+			encodedFrame=PngService.encodeFrame(png,outputBuffer);
+		}
+	}
+
+}
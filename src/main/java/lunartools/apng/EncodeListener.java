@@ -0,0 +1,31 @@
+package lunartools.apng;
+
+/**
+ * Listener to the calling application to inform about the timings and sizes when creating an APNG, e.g. to find
+ * out which encoding stage takes the most time for certain images.
+ * <br>All timings are in nanoseconds, measured with <code>System.nanoTime()</code>.
+ * 
+ * @author Thomas Mattel
+ * @see ApngBuilder#setEncodeListener(EncodeListener)
+ */
+public interface EncodeListener {
+
+	/**
+	 * Called after the colours of all images of the animation have been analyzed, before the images are encoded.
+	 * 
+	 * @param analysisNanos the time to collect and analyze the colours of all images, including the reduction of
+	 * truecolour bits
+	 * @param quantizationNanos the time of the colour quantizer, <code>0</code> if the number of colours is not reduced
+	 * @param numberOfColours the number of colours of all images, after the reduction
+	 */
+	public default void coloursAnalyzed(long analysisNanos,long quantizationNanos,int numberOfColours) {}
+
+	/**
+	 * Called for each image when it is added to the (A)PNG data, in order of the images, from the thread creating
+	 * the (A)PNG data.
+	 * 
+	 * @param frameMetrics the timings and sizes of the image
+	 */
+	public void frameEncoded(FrameMetrics frameMetrics);
+
+}
@@ -0,0 +1,93 @@
+package lunartools.apng;
+
+/**
+ * Collects the timings and sizes of encoding an image, see FrameMetrics.
+ * <br>The timings of all encodings of an image are added, as the candidates of an image might be encoded
+ * concurrently.
+ *
+ * @author Thomas Mattel
+ */
+class EncodeStatistics {
+	private long optimizeNanos;
+	private long filterNanos;
+	private long deflateNanos;
+	private int numberOfEncodings;
+	private long rawBytes;
+	private final int[] filterTypes=new int[5];
+
+	/**
+	 * Adds the timings of an encoding of the image.
+	 * 
+	 * @param encoding the statistics of a single encoding
+	 */
+	synchronized void addEncoding(EncodeStatistics encoding) {
+		optimizeNanos+=encoding.optimizeNanos;
+		filterNanos+=encoding.filterNanos;
+		deflateNanos+=encoding.deflateNanos;
+		numberOfEncodings++;
+	}
+
+	/**
+	 * Sets the sizes and filter types of the encoding chosen for the image.
+	 * 
+	 * @param encodings the statistics of the chosen encoding and its sub-frames
+	 */
+	synchronized void setResult(EncodeStatistics... encodings) {
+		rawBytes=0;
+		for(int i=0;i<filterTypes.length;i++) {
+			filterTypes[i]=0;
+		}
+		for(int k=0;k<encodings.length;k++) {
+			rawBytes+=encodings[k].rawBytes;
+			for(int i=0;i<filterTypes.length;i++) {
+				filterTypes[i]+=encodings[k].filterTypes[i];
+			}
+		}
+	}
+
+	synchronized void addOptimizeNanos(long nanos) {
+		optimizeNanos+=nanos;
+	}
+
+	void addFilterNanos(long nanos) {
+		filterNanos+=nanos;
+	}
+
+	void addDeflateNanos(long nanos) {
+		deflateNanos+=nanos;
+	}
+
+	/**
+	 * @param rawBytes the size of the filtered scanlines
+	 * @param filterTypes the number of scanlines of each filter type
+	 */
+	void setFilteredImage(long rawBytes,int[] filterTypes) {
+		this.rawBytes=rawBytes;
+		System.arraycopy(filterTypes,0,this.filterTypes,0,this.filterTypes.length);
+	}
+
+	synchronized long getOptimizeNanos() {
+		return optimizeNanos;
+	}
+
+	synchronized long getFilterNanos() {
+		return filterNanos;
+	}
+
+	synchronized long getDeflateNanos() {
+		return deflateNanos;
+	}
+
+	synchronized int getNumberOfEncodings() {
+		return numberOfEncodings;
+	}
+
+	synchronized long getRawBytes() {
+		return rawBytes;
+	}
+
+	synchronized int[] getFilterTypes() {
+		return filterTypes.clone();
+	}
+
+}
@@ -0,0 +1,119 @@
+package lunartools.apng;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+
+import lunartools.apng.chunks.Chunk;
+import lunartools.apng.chunks.Chunk_IDAT;
+
+/**
+ * An image of an animation, encoded compared to a reference, which is the content of the output buffer before the
+ * image is rendered.
+ *
+ * @author Thomas Mattel
+ */
+class EncodedFrame {
+	/** The length of the fcTL chunk of a sub-frame */
+	private static final int SUBFRAME_OVERHEAD=38;
+	private final int minimumNumberOfTransparentPixel;
+	private final ImagedataOptimizer imagedataOptimizer;
+	private final ArrayList<Chunk> chunklist;
+	private final EncodeStatistics encodeStatistics=new EncodeStatistics();
+	private ArrayList<EncodedFrame> subFrames;
+	private long size;
+
+	/**
+	 * Encodes the image of the given png.
+	 *
+	 * @param png
+	 * @param reference the output buffer as RGB int array
+	 * @param minimumNumberOfTransparentPixel the minimum number of unchanged pixel in a row, before they get
+	 * replaced with transparent pixel, <code>0</code> to crop unchanged pixel only
+	 */
+	EncodedFrame(Png png,int[] reference,int minimumNumberOfTransparentPixel) {
+		this(png,reference,minimumNumberOfTransparentPixel,null);
+	}
+
+	/**
+	 * Encodes an area of the image of the given png.
+	 *
+	 * @param png
+	 * @param reference the output buffer as RGB int array
+	 * @param minimumNumberOfTransparentPixel the minimum number of unchanged pixel in a row, before they get
+	 * replaced with transparent pixel, <code>0</code> to crop unchanged pixel only
+	 * @param area the area of the image, or <code>null</code> for the whole image
+	 */
+	EncodedFrame(Png png,int[] reference,int minimumNumberOfTransparentPixel,Rectangle area) {
+		this.minimumNumberOfTransparentPixel=minimumNumberOfTransparentPixel;
+		imagedataOptimizer=new ImagedataOptimizer();
+		long timeStart=System.nanoTime();
+		imagedataOptimizer.optimizeImage(png,reference,minimumNumberOfTransparentPixel,area);
+		encodeStatistics.addOptimizeNanos(System.nanoTime()-timeStart);
+		chunklist=PngService.createChunklistViaPngEncoder(png,imagedataOptimizer,encodeStatistics);
+		png.getEncodeStatistics().addEncoding(encodeStatistics);
+		for(int i=0;i<chunklist.size();i++) {
+			if(chunklist.get(i) instanceof Chunk_IDAT) {
+				size+=chunklist.get(i).getChunkLength();
+			}
+		}
+	}
+
+	/** @return the chunks of the PNG, from IHDR to IEND */
+	ArrayList<Chunk> getChunklist() {
+		return chunklist;
+	}
+
+	/**
+	 * Adds a sub-frame, which is rendered after this frame, without delay.
+	 *
+	 * @param subFrame an area of the image not overlapping with this frame or other sub-frames
+	 */
+	void addSubFrame(EncodedFrame subFrame) {
+		if(subFrames==null) {
+			subFrames=new ArrayList<EncodedFrame>();
+		}
+		subFrames.add(subFrame);
+		size+=SUBFRAME_OVERHEAD+subFrame.getSize();
+	}
+
+	/** @return the sub-frames rendered after this frame, or <code>null</code> */
+	ArrayList<EncodedFrame> getSubFrames() {
+		return subFrames;
+	}
+
+	/** @return the timings and sizes of this encoding, without the sub-frames */
+	EncodeStatistics getEncodeStatistics() {
+		return encodeStatistics;
+	}
+
+	/** @return the total length of all IDAT chunks, including the sub-frames and their fcTL chunks */
+	long getSize() {
+		return size;
+	}
+
+	int getWidth() {
+		return imagedataOptimizer.getwidth();
+	}
+
+	int getHeight() {
+		return imagedataOptimizer.getHeight();
+	}
+
+	int getOffsetX() {
+		return imagedataOptimizer.getOffsetX();
+	}
+
+	int getOffsetY() {
+		return imagedataOptimizer.getOffsetY();
+	}
+
+	/** @return <code>true</code> if unchanged pixel have been replaced with transparent pixel */
+	boolean hasTransparentPixel() {
+		return imagedataOptimizer.hasTransparentPixel();
+	}
+
+	int getMinimumNumberOfTransparentPixel() {
+		return minimumNumberOfTransparentPixel;
+	}
+
+}
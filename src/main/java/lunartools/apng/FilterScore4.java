@@ -1,48 +1,80 @@
 package lunartools.apng;
 
-import java.io.ByteArrayOutputStream;
 import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
 
 /**
  * Calculates a score, to compare which filter type is most likely the best choice for the current scanline.
  * <br>This implementation calculates the score by deflating the previous and the current scanline. The score is the size 
  * of the compresses data.
+ * <br>The Deflater is taken from the ZlibPool when scoring an image starts, reused for all scanlines of the image, and
+ * returned to the pool at its end.
  * 
  * @author Thomas Mattel
  */
-public class FilterScore4{
-	protected byte[] currentScanline;
-	protected byte[] lastScanline;
+public class FilterScore4 implements FilterScorer{
+	protected byte[] currentScanline=new byte[0];
+	protected byte[] lastScanline=new byte[0];
+	private int currentLength;
+	private int lastLength;
 	private Deflater deflater;
+	private byte[] buffer=new byte[512];
 	
-	public FilterScore4() {
-		deflater=new Deflater(Deflater.DEFAULT_COMPRESSION);
-		deflater.setStrategy(Deflater.HUFFMAN_ONLY);
+	@Override
+	public void reset() {
+		lastLength=0;
+		currentLength=0;
+		if(deflater==null) {
+			deflater=ZlibPool.acquireDeflater(Deflater.DEFAULT_COMPRESSION,Deflater.HUFFMAN_ONLY,false);
+		}
 	}
-	
-	public void addLine(byte[] baScanline) {
+
+	@Override
+	public void addLine(byte[] baScanline, int length) {
+		byte[] swap=lastScanline;
 		lastScanline=currentScanline;
-		currentScanline=baScanline.clone();
+		lastLength=currentLength;
+		currentScanline=swap.length>=length?swap:new byte[length];
+		System.arraycopy(baScanline, 0, currentScanline, 0, length);
+		currentLength=length;
 	}
 
-	public int calcScore(byte[] scanline) {
+	@Override
+	public int calcScore(byte[] scanline, int length) {
 		try {
-			deflater.reset();
-			ByteArrayOutputStream baosCompressed=new ByteArrayOutputStream();
-			DeflaterOutputStream dos=new DeflaterOutputStream(baosCompressed,deflater);
-			if(lastScanline!=null) {
-				dos.write(lastScanline);
+			int score=0;
+			score+=deflate(lastScanline,lastLength);
+			score+=deflate(currentScanline,currentLength);
+			score+=deflate(scanline,length);
+			deflater.finish();
+			while(!deflater.finished()) {
+				score+=deflater.deflate(buffer);
 			}
-			if(currentScanline!=null) {
-				dos.write(currentScanline);
-			}
-			dos.write(scanline);
-			dos.finish();
-			dos.flush();
-			return baosCompressed.toByteArray().length;
+			return score;
 		} catch (Exception e) {
 			throw new RuntimeException("error calculating score",e);
+		}finally {
+			deflater.reset();
+		}
+	}
+
+	@Override
+	public void end() {
+		if(deflater!=null) {
+			ZlibPool.releaseDeflater(deflater);
+			deflater=null;
+		}
+	}
+
+	/** @return the number of compressed bytes, the output itself is not needed */
+	private int deflate(byte[] scanline, int length) {
+		if(length==0) {
+			return 0;
+		}
+		int count=0;
+		deflater.setInput(scanline,0,length);
+		while(!deflater.needsInput()) {
+			count+=deflater.deflate(buffer);
 		}
+		return count;
 	}
 }
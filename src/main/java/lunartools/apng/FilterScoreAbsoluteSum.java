@@ -0,0 +1,28 @@
+package lunartools.apng;
+
+/**
+ * Calculates a score, to compare which filter type is most likely the best choice for the current scanline.
+ * <br>This implementation calculates the score as sum of the absolute values of the filtered bytes, interpreted as
+ * signed bytes. This is the heuristic suggested by the PNG specification.
+ * 
+ * @see <a href="https://www.w3.org/TR/PNG/#12Filter-selection">Filter selection, Portable Network Graphics (PNG) Specification (Second Edition)</a>
+ * @author Thomas Mattel
+ */
+public class FilterScoreAbsoluteSum implements FilterScorer{
+
+	@Override
+	public void reset() {}
+
+	@Override
+	public void addLine(byte[] scanline, int length) {}
+
+	@Override
+	public int calcScore(byte[] scanline, int length) {
+		int score=0;
+		for(int i=0;i<length;i++) {
+			int value=scanline[i];
+			score+=value<0?-value:value;
+		}
+		return score;
+	}
+}
@@ -0,0 +1,44 @@
+package lunartools.apng;
+
+/**
+ * Calculates a score, to compare which filter type is most likely the best choice for the current scanline.
+ * <br>This implementation estimates the number of bits needed to encode the filtered bytes, based on their
+ * frequency within the scanline (Shannon entropy).
+ * 
+ * @author Thomas Mattel
+ */
+public class FilterScoreEntropy implements FilterScorer{
+	private int[] histogram=new int[256];
+	private float[] costTable=new float[0];
+
+	@Override
+	public void reset() {}
+
+	@Override
+	public void addLine(byte[] scanline, int length) {}
+
+	@Override
+	public int calcScore(byte[] scanline, int length) {
+		if(costTable.length<=length) {
+			createCostTable(length);
+		}
+		for(int i=0;i<length;i++) {
+			histogram[scanline[i]&0xff]++;
+		}
+		//bits = n*log2(n) - sum(c*log2(c))
+		float bits=costTable[length];
+		for(int i=0;i<histogram.length;i++) {
+			bits-=costTable[histogram[i]];
+			histogram[i]=0;
+		}
+		return (int)bits;
+	}
+
+	/** Creates a table of n*log2(n) */
+	private void createCostTable(int length) {
+		costTable=new float[length+1];
+		for(int n=1;n<costTable.length;n++) {
+			costTable[n]=(float)(n*Math.log(n)/Math.log(2));
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package lunartools.apng;
+
+/**
+ * Calculates a score, to compare which filter type is most likely the best choice for the current scanline.
+ * <br>The lower the score, the better the filter type.
+ * 
+ * @author Thomas Mattel
+ */
+public interface FilterScorer {
+
+	/**
+	 * Forgets all scanlines added so far, to start scoring a new image.
+	 */
+	public void reset();
+
+	/**
+	 * Adds the filtered scanline that was chosen for the current line.
+	 * 
+	 * @param scanline the chosen filtered scanline
+	 * @param length the length of the scanline, the array might be larger
+	 */
+	public void addLine(byte[] scanline, int length);
+
+	/**
+	 * Calculates the score of a filtered scanline.
+	 * 
+	 * @param scanline a filtered scanline
+	 * @param length the length of the scanline, the array might be larger
+	 * @return the score, lower is better
+	 */
+	public int calcScore(byte[] scanline, int length);
+
+	/**
+	 * Releases the resources taken for scoring the current image, called after the last scanline of the image.
+	 */
+	public default void end() {
+	}
+
+}
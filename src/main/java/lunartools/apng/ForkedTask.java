@@ -0,0 +1,83 @@
+package lunartools.apng;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * A task submitted to an executor, that is run by the waiting thread if no thread of the executor has started it yet.
+ * <br>The encoding waits for the images, the candidates of an image, and the deflate blocks of an image, all running
+ * on the same executor. If the threads of the executor were blocked waiting for tasks queued behind them, the
+ * encoding would never finish. As the waiting thread runs the tasks not started yet itself, every executor works,
+ * even a single thread executor.
+ *
+ * @author Thomas Mattel
+ */
+class ForkedTask<T> implements Runnable {
+	private final Supplier<T> supplier;
+	private final AtomicBoolean started=new AtomicBoolean();
+	private final CompletableFuture<T> future=new CompletableFuture<T>();
+
+	private ForkedTask(Supplier<T> supplier) {
+		this.supplier=supplier;
+	}
+
+	/**
+	 * Submits a task to the given executor.
+	 *
+	 * @param supplier the task
+	 * @param executor the executor, or <code>null</code> to run the task when joining it
+	 * @return the task
+	 */
+	static <T> ForkedTask<T> fork(Supplier<T> supplier,Executor executor) {
+		ForkedTask<T> task=new ForkedTask<T>(supplier);
+		if(executor!=null) {
+			try {
+				executor.execute(task);
+			} catch (RejectedExecutionException e) {
+				//run by the joining thread
+			}
+		}
+		return task;
+	}
+
+	/**
+	 * Runs the task, unless it has been started already.
+	 */
+	@Override
+	public void run() {
+		if(!started.compareAndSet(false,true)) {
+			return;
+		}
+		try {
+			future.complete(supplier.get());
+		} catch (Throwable e) {
+			future.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Returns the result of the task, running it in the calling thread if it has not been started yet.
+	 * <br>A RuntimeException or Error thrown by the task is rethrown unchanged.
+	 *
+	 * @return the result of the task
+	 */
+	T join() {
+		run();
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
+			}
+			if(e.getCause() instanceof Error) {
+				throw (Error)e.getCause();
+			}
+			throw e;
+		}
+	}
+
+}
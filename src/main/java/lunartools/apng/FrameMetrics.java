@@ -0,0 +1,115 @@
+package lunartools.apng;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * The timings and sizes of an image of an (A)PNG, passed to the EncodeListener.
+ * <br>All timings are in nanoseconds. If an image is encoded several times, e.g. by the transparent pixel
+ * optimization or the dispose op optimization, the timings are the sum of all encodings, while the sizes and the
+ * filter types are those of the encoding written to the (A)PNG.
+ * <br>Images not encoded by the PngEncoder, e.g. PNG files that are not reencoded, have no encoding timings, no raw
+ * bytes and no filter types.
+ * 
+ * @author Thomas Mattel
+ */
+public class FrameMetrics {
+	private final int frameIndex;
+	private final long decodeNanos;
+	private final long optimizeNanos;
+	private final long filterNanos;
+	private final long deflateNanos;
+	private final int numberOfEncodings;
+	private final int numberOfFrames;
+	private final long rawBytes;
+	private final long compressedBytes;
+	private final Rectangle area;
+	private final int[] filterTypes;
+
+	FrameMetrics(int frameIndex,long decodeNanos,EncodeStatistics encodeStatistics,int numberOfFrames,long compressedBytes,Rectangle area) {
+		this.frameIndex=frameIndex;
+		this.decodeNanos=decodeNanos;
+		this.optimizeNanos=encodeStatistics.getOptimizeNanos();
+		this.filterNanos=encodeStatistics.getFilterNanos();
+		this.deflateNanos=encodeStatistics.getDeflateNanos();
+		this.numberOfEncodings=encodeStatistics.getNumberOfEncodings();
+		this.numberOfFrames=numberOfFrames;
+		this.rawBytes=encodeStatistics.getRawBytes();
+		this.compressedBytes=compressedBytes;
+		this.area=area;
+		this.filterTypes=encodeStatistics.getFilterTypes();
+	}
+
+	/** @return the index of the image, starting with 0, identical images are skipped */
+	public int getFrameIndex() {
+		return frameIndex;
+	}
+
+	/** @return the time to read the image and convert it to RGB pixel, including reading it again after eviction */
+	public long getDecodeNanos() {
+		return decodeNanos;
+	}
+
+	/** @return the time to compare the image to the previous image and crop it, including finding sub-frames */
+	public long getOptimizeNanos() {
+		return optimizeNanos;
+	}
+
+	/** @return the time to choose the filter type of each scanline and filter it */
+	public long getFilterNanos() {
+		return filterNanos;
+	}
+
+	/** @return the time to deflate the filtered scanlines */
+	public long getDeflateNanos() {
+		return deflateNanos;
+	}
+
+	/** @return the number of times the image was encoded to find the smallest encoding */
+	public int getNumberOfEncodings() {
+		return numberOfEncodings;
+	}
+
+	/** @return the number of APNG frames of the image, more than one if it is split into sub-frames */
+	public int getNumberOfFrames() {
+		return numberOfFrames;
+	}
+
+	/** @return the size of the filtered scanlines, before deflating */
+	public long getRawBytes() {
+		return rawBytes;
+	}
+
+	/** @return the size of the compressed image data of all IDAT chunks, including sub-frames */
+	public long getCompressedBytes() {
+		return compressedBytes;
+	}
+
+	/** @return the area of the image after cropping, the bounding box of all sub-frames */
+	public Rectangle getArea() {
+		return new Rectangle(area);
+	}
+
+	/** @return the number of scanlines of each filter type, indexed by filter type 0 (None) to 4 (Paeth) */
+	public int[] getFilterTypes() {
+		return filterTypes.clone();
+	}
+
+	@Override
+	public String toString() {
+		StringBuffer sb=new StringBuffer();
+		sb.append("FrameMetrics");
+		sb.append("\n\tFrameIndex: "+frameIndex);
+		sb.append("\n\tDecodeNanos: "+decodeNanos);
+		sb.append("\n\tOptimizeNanos: "+optimizeNanos);
+		sb.append("\n\tFilterNanos: "+filterNanos);
+		sb.append("\n\tDeflateNanos: "+deflateNanos);
+		sb.append("\n\tNumberOfEncodings: "+numberOfEncodings);
+		sb.append("\n\tNumberOfFrames: "+numberOfFrames);
+		sb.append("\n\tRawBytes: "+rawBytes);
+		sb.append("\n\tCompressedBytes: "+compressedBytes);
+		sb.append("\n\tArea: "+area.x+","+area.y+" "+area.width+"x"+area.height);
+		sb.append("\n\tFilterTypes: "+Arrays.toString(filterTypes));
+		return sb.toString();
+	}
+}
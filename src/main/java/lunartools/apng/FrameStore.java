@@ -0,0 +1,199 @@
+package lunartools.apng;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lunartools.apng.ApngBuilder.FrameStorage;
+
+/**
+ * Keeps the pixel of the images of an animation within a memory budget.
+ * <br>The recently used images stay on the heap. When the budget is exceeded, the least recently used images are
+ * evicted, their pixel are moved to a direct buffer or a memory mapped temporary file, from where they are read
+ * again when needed.
+ * <br>The temporary file is mapped in segments of 64 MB, each evicted image gets a slice of a segment, so the number of
+ * mappings does not grow with the number of images. The buffer of a released image is reused by the next evicted
+ * image of the same size.
+ * <br>The temporary file is deleted right after it is opened where the platform allows it, otherwise when the store
+ * is closed. It is not registered for deletion on exit, which would keep the name of every file until the JVM exits.
+ * <br>The store only decides which images to evict, the eviction itself is done by the caller, so the lock of the
+ * store is never held while waiting for the lock of an ImageData.
+ *
+ * @author Thomas Mattel
+ */
+class FrameStore implements Closeable {
+	private static Logger logger = LoggerFactory.getLogger(FrameStore.class);
+	private static final int SEGMENT_SIZE=64*1024*1024;
+	private final FrameStorage frameStorage;
+	private final long memoryBudget;
+	private final LinkedHashMap<ImageData,Long> hotFrames=new LinkedHashMap<ImageData,Long>(16,0.75f,true);
+	private long hotBytes;
+	private File file;
+	private FileChannel channel;
+	private long fileSize;
+	private ByteBuffer segment;
+	private final HashMap<Integer,ArrayList<ByteBuffer>> freeBuffers=new HashMap<Integer,ArrayList<ByteBuffer>>();
+	private boolean closed;
+
+	/**
+	 * Creates a store.
+	 *
+	 * @param frameStorage where to keep evicted pixel, either OFF_HEAP or MAPPED_FILE
+	 * @param memoryBudget the number of bytes the images may take on the heap
+	 */
+	FrameStore(FrameStorage frameStorage,long memoryBudget) {
+		if(frameStorage==FrameStorage.HEAP) {
+			throw new IllegalArgumentException("frame storage not supported: "+frameStorage);
+		}
+		this.frameStorage=frameStorage;
+		this.memoryBudget=memoryBudget;
+	}
+
+	/**
+	 * Marks an image as most recently used, and returns the images to evict.
+	 *
+	 * @param imageData the image being used
+	 * @param bytes the number of bytes the image takes on the heap
+	 * @return the least recently used images exceeding the memory budget, to be evicted by the caller
+	 */
+	synchronized ArrayList<ImageData> touch(ImageData imageData,long bytes) {
+		ArrayList<ImageData> evicted=new ArrayList<ImageData>();
+		if(closed) {
+			return evicted;
+		}
+		Long bytesBefore=hotFrames.put(imageData,bytes);
+		hotBytes+=bytes-(bytesBefore==null?0:bytesBefore);
+		Iterator<Map.Entry<ImageData,Long>> iterator=hotFrames.entrySet().iterator();
+		//the image being used is the most recently used one, so it is never evicted
+		while(hotBytes>memoryBudget && hotFrames.size()>1) {
+			Map.Entry<ImageData,Long> eldest=iterator.next();
+			hotBytes-=eldest.getValue();
+			evicted.add(eldest.getKey());
+			iterator.remove();
+		}
+		return evicted;
+	}
+
+	/**
+	 * Removes an image whose pixel are no longer on the heap.
+	 *
+	 * @param imageData
+	 */
+	synchronized void remove(ImageData imageData) {
+		Long bytes=hotFrames.remove(imageData);
+		if(bytes!=null) {
+			hotBytes-=bytes;
+		}
+	}
+
+	/**
+	 * Allocates a buffer outside of the heap to keep the pixel of an evicted image.
+	 * <br>A buffer of the same size, given back by free(), is reused.
+	 *
+	 * @param bytes the size of the buffer
+	 * @return the buffer, or <code>null</code> if the store is closed
+	 * @throws IOException
+	 */
+	synchronized ByteBuffer allocate(int bytes) throws IOException {
+		if(closed) {
+			return null;
+		}
+		ArrayList<ByteBuffer> buffers=freeBuffers.get(bytes);
+		if(buffers!=null && buffers.size()>0) {
+			return buffers.remove(buffers.size()-1);
+		}
+		if(frameStorage==FrameStorage.OFF_HEAP) {
+			return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+		}
+		if(channel==null) {
+			file=File.createTempFile("apng",".frames");
+			try {
+				channel=new RandomAccessFile(file,"rw").getChannel();
+			} catch (IOException e) {
+				file.delete();
+				throw e;
+			}
+			logger.debug("frame store file created: {}",file);
+			//on POSIX systems an open file can be deleted, its space is freed when the channel and all mappings are gone
+			if(file.delete()) {
+				logger.debug("frame store file deleted while open: {}",file);
+				file=null;
+			}
+		}
+		if(segment==null || segment.remaining()<bytes) {
+			//the rest of the current segment is left unused, an image larger than a segment is mapped on its own
+			int segmentSize=Math.max(SEGMENT_SIZE,bytes);
+			segment=channel.map(FileChannel.MapMode.READ_WRITE,fileSize,segmentSize);
+			fileSize+=segmentSize;
+			logger.debug("frame store file mapped, size: {}",fileSize);
+		}
+		int position=segment.position();
+		((Buffer)segment).limit(position+bytes);
+		ByteBuffer byteBuffer=segment.slice().order(ByteOrder.nativeOrder());
+		((Buffer)segment).limit(segment.capacity());
+		((Buffer)segment).position(position+bytes);
+		return byteBuffer;
+	}
+
+	/**
+	 * Gives back the buffer of a released image, to be reused by the next evicted image of the same size.
+	 *
+	 * @param byteBuffer a buffer returned by allocate()
+	 */
+	synchronized void free(ByteBuffer byteBuffer) {
+		if(closed) {
+			return;
+		}
+		ArrayList<ByteBuffer> buffers=freeBuffers.get(byteBuffer.capacity());
+		if(buffers==null) {
+			buffers=new ArrayList<ByteBuffer>();
+			freeBuffers.put(byteBuffer.capacity(),buffers);
+		}
+		buffers.add(byteBuffer);
+	}
+
+	/**
+	 * Closes the store, no more images get evicted.
+	 * <br>Pixel already evicted can still be read, a mapped file stays mapped until its buffers are garbage collected.
+	 */
+	@Override
+	public synchronized void close() {
+		if(closed) {
+			return;
+		}
+		closed=true;
+		hotFrames.clear();
+		hotBytes=0;
+		freeBuffers.clear();
+		segment=null;
+		if(channel!=null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.warn("error closing frame store file",e);
+			}
+			if(file!=null) {
+				//deleting a file that is still mapped fails on some platforms, e.g. Windows
+				if(file.delete()) {
+					logger.debug("frame store file deleted: {}",file);
+				}else {
+					logger.warn("frame store file could not be deleted: {}",file);
+				}
+			}
+		}
+	}
+
+}
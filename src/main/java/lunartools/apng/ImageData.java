@@ -3,12 +3,15 @@ package lunartools.apng;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 
 import lunartools.ImageTools;
 
 /**
  * The imagedata of the 'source-image' used to create the Png object.
+ * <br>If the animation has a FrameStore, the pixel may be evicted from the heap, and are read again when needed.
  * 
  * @author Thomas Mattel
  */
@@ -18,6 +21,13 @@ class ImageData {
 	private BufferedImage bufferedImage;
 
 	private int[] imageRgbInts;
+	private FrameStore frameStore;
+	private ByteBuffer storedBuffer;
+	private IntBuffer storedRgbInts;
+	private boolean dirty;
+	private int width;
+	private int height;
+	private long decodeNanos;
 
 	/**
 	 * Creates an ImageData object, containing the image data of the source-image of the PNG object.
@@ -42,22 +52,46 @@ class ImageData {
 		return imagesource;
 	}
 
+	/**
+	 * Sets the store keeping the pixel of the animation within the memory budget.
+	 * 
+	 * @param frameStore the store, or <code>null</code> to keep the pixel on the heap
+	 */
+	void setFrameStore(FrameStore frameStore) {
+		this.frameStore=frameStore;
+	}
+
 	/**
 	 * Returns the BufferedImage of this ImageData.
-	 * <br>
+	 * <br>Thread safe, because an image is read by the encoding of its own frame and the encoding of the next frame, which might run concurrently.
+	 * 
 	 * @return the BufferedImage of this ImageData
 	 */
 	BufferedImage getBufferedImage() {
+		BufferedImage bufferedImage=loadBufferedImage();
+		touchFrameStore();
+		return bufferedImage;
+	}
+
+	private synchronized BufferedImage loadBufferedImage() {
 		if(bufferedImage==null) {
 			if(imagesource instanceof BufferedImage) {
 				bufferedImage=(BufferedImage)imagesource;
 			}else if(imagesource instanceof File) {
 				try {
+					long timeStart=System.nanoTime();
 					bufferedImage=ImageTools.createBufferedImage_intRGB((File)imagesource);
+					decodeNanos+=System.nanoTime()-timeStart;
 				} catch (IOException e) {
 					throw new RuntimeException("error reading BufferedImage",e);
 				}
+			}else {
+				//the source image was released when evicting the pixel
+				bufferedImage=new BufferedImage(width,height,BufferedImage.TYPE_INT_RGB);
+				bufferedImage.setRGB(0,0,width,height,loadRgbInts(),0,width);
 			}
+			width=bufferedImage.getWidth();
+			height=bufferedImage.getHeight();
 		}
 		return bufferedImage;
 	}
@@ -74,19 +108,9 @@ class ImageData {
 	byte[] getImageBytes() {
 		switch(png.getAnimData().getColourType()) {
 		case TRUECOLOUR:
-			return ImageTools.getRgbBytesFromBufferedImage(getBufferedImage());
+			return ImageTools.createByteRGBfromIntRGB(getRgbInts());
 		case INDEXEDCOLOUR:
-			int[] pixel=getRgbInts();
-			byte[] bytes=new byte[pixel.length];
-			int[] hashtable=new int[0x1000000];
-			ArrayList<ColourRGB> palette=png.getAnimData().getPalette();
-			for(int i=0;i<palette.size();i++) {
-				hashtable[palette.get(i).getColour()]=i;
-			}
-			for(int i=0;i<pixel.length;i++) {
-				bytes[i]=(byte)hashtable[pixel[i]];
-			}
-			return bytes;
+			return convertToPaletteImage(getRgbInts());
 		case GREYSCALE:
 			return ImageTools.createByteGreyscaleFromIntGreyscale(getRgbInts());
 		default:
@@ -101,16 +125,7 @@ class ImageData {
 	 * @return
 	 */
 	byte[] convertToPaletteImage(int[] pixel) {
-		byte[] bytes=new byte[pixel.length];
-		int[] hashtable=new int[0x1000000];
-		ArrayList<ColourRGB> palette=png.getAnimData().getPalette();
-		for(int i=0;i<palette.size();i++) {
-			hashtable[palette.get(i).getColour()]=i;
-		}
-		for(int i=0;i<pixel.length;i++) {
-			bytes[i]=(byte)hashtable[pixel[i]];
-		}
-		return bytes;
+		return png.getAnimData().getPalette().toIndexBytes(pixel);
 	}
 
 	/**
@@ -119,7 +134,10 @@ class ImageData {
 	 * @return the width of the image source
 	 */
 	int getWidth() {
-		return getBufferedImage().getWidth();
+		if(width==0) {
+			loadBufferedImage();
+		}
+		return width;
 	}
 
 	/**
@@ -128,31 +146,159 @@ class ImageData {
 	 * @return the height of the image source
 	 */
 	int getHeight() {
-		return getBufferedImage().getHeight();
+		if(height==0) {
+			loadBufferedImage();
+		}
+		return height;
 	}
 
 	/**
 	 * Returns the image pixel as RGB int array.
+	 * <br>Thread safe, like getBufferedImage().
 	 * 
 	 * @return the image pixel as RGB int array
 	 */
 	int[] getRgbInts() {
+		int[] rgbInts=loadRgbInts();
+		touchFrameStore();
+		return rgbInts;
+	}
+
+	private synchronized int[] loadRgbInts() {
 		if(imageRgbInts==null) {
-			imageRgbInts=ImageTools.getRgbIntsFromBufferedImage(getBufferedImage());
+			if(storedRgbInts!=null) {
+				long timeStart=System.nanoTime();
+				imageRgbInts=new int[storedRgbInts.capacity()];
+				storedRgbInts.clear();
+				storedRgbInts.get(imageRgbInts);
+				decodeNanos+=System.nanoTime()-timeStart;
+			}else {
+				BufferedImage bufferedImage=loadBufferedImage();
+				long timeStart=System.nanoTime();
+				imageRgbInts=ImageTools.getRgbIntsFromBufferedImage(bufferedImage);
+				decodeNanos+=System.nanoTime()-timeStart;
+			}
 		}
 		return imageRgbInts;
 	}
 
-	void reset() {
-		bufferedImage=null;;
+	/**
+	 * Returns the time spent reading the image and converting it to RGB pixel, including reading the pixel again after
+	 * they have been evicted.
+	 * 
+	 * @return the decode time in nanoseconds
+	 */
+	synchronized long getDecodeNanos() {
+		return decodeNanos;
+	}
+
+	/**
+	 * Replaces the pixel, after they have been changed outside of this ImageData.
+	 * <br>Changes to the array returned by getRgbInts() get lost, if the pixel are evicted before they are set
+	 * with this method.
+	 * 
+	 * @param rgbInts the changed pixel as RGB int array
+	 */
+	void setRgbInts(int[] rgbInts) {
+		synchronized(this) {
+			imageRgbInts=rgbInts;
+			dirty=true;
+		}
+		touchFrameStore();
+	}
+
+	synchronized void reset() {
+		bufferedImage=null;
 		imageRgbInts=null;
+		if(frameStore!=null) {
+			frameStore.remove(this);
+		}
+	}
+
+	/**
+	 * Releases the pixel, including the pixel evicted from the heap, when the image is no longer needed.
+	 * <br>If the pixel have been evicted, the image can not be read again.
+	 */
+	synchronized void release() {
+		reset();
+		if(storedBuffer!=null) {
+			frameStore.free(storedBuffer);
+			storedBuffer=null;
+			storedRgbInts=null;
+		}
+	}
+
+	/**
+	 * Marks this image as most recently used in the FrameStore, and evicts the images exceeding the memory budget.
+	 * <br>Must not be called while holding the lock of this ImageData, see FrameStore.
+	 */
+	private void touchFrameStore() {
+		if(frameStore==null) {
+			return;
+		}
+		ArrayList<ImageData> evicted=frameStore.touch(this,getHeapSize());
+		for(int i=0;i<evicted.size();i++) {
+			evicted.get(i).evict();
+		}
+	}
+
+	/** @return the number of bytes the pixel of this image take on the heap */
+	private synchronized long getHeapSize() {
+		long bytes=0;
+		if(bufferedImage!=null) {
+			bytes+=(long)width*height*4;
+		}
+		if(imageRgbInts!=null) {
+			bytes+=(long)imageRgbInts.length*4;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Moves the pixel out of the heap.
+	 * <br>A BufferedImage source gets released, as the pixel can be read from the FrameStore. Pixel of a File
+	 * source, that have not been changed by setRgbInts(), are not stored, as they can be read from the file again.
+	 */
+	private synchronized void evict() {
+		if(imagesource instanceof File && (!dirty || imageRgbInts==null)) {
+			//unchanged pixel are read from the file again, changed pixel not on the heap are stored already
+			bufferedImage=null;
+			imageRgbInts=null;
+			return;
+		}
+		if(imageRgbInts==null) {
+			if(bufferedImage==null) {
+				return;
+			}
+			imageRgbInts=ImageTools.getRgbIntsFromBufferedImage(bufferedImage);
+		}
+		try {
+			if(storedRgbInts==null) {
+				ByteBuffer byteBuffer=frameStore.allocate(imageRgbInts.length*4);
+				if(byteBuffer==null) {
+					//the store has been closed, keep the pixel on the heap
+					return;
+				}
+				storedBuffer=byteBuffer;
+				storedRgbInts=byteBuffer.asIntBuffer();
+			}
+			storedRgbInts.clear();
+			storedRgbInts.put(imageRgbInts);
+		} catch (IOException e) {
+			throw new RuntimeException("error storing image data",e);
+		}
+		bufferedImage=null;
+		imageRgbInts=null;
+		if(imagesource instanceof BufferedImage) {
+			imagesource=null;
+		}
 	}
 	
 	@Override
 	public String toString() {
 		StringBuffer sb=new StringBuffer();
 		sb.append("ImageData:");
-		sb.append("\n\tImageSource: "+imagesource.getClass().getName());
+		sb.append("\n\tImageSource: "+(imagesource==null?"released":imagesource.getClass().getName()));
 		return sb.toString();
 	}
 
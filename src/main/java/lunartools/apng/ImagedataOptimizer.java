@@ -1,6 +1,10 @@
 package lunartools.apng;
 
+import java.awt.Rectangle;
+import java.util.Arrays;
+
 import lunartools.ImageTools;
+import lunartools.apng.chunks.Chunk_IHDR.ColourType;
 
 /**
  * Optimizes the image to reduce filesize.
@@ -16,177 +20,245 @@ public class ImagedataOptimizer {
 	private int offsetY;
 	private int width;
 	private int height;
+	private boolean flagHasTransparentPixel;
+	private int boxLeft;
+	private int boxTop;
+	private int boxRight;
+	private int boxBottom;
 
-	void optimizeImage(Png png) {
-		this.offsetX=0;
-		this.offsetY=0;
+	/**
+	 * Optimizes the image, compared to the given reference, which is the content of the output buffer before the
+	 * image is rendered.
+	 * 
+	 * @param png
+	 * @param intReference the output buffer as RGB int array, not modified
+	 * @param minimumNumberOfTransparentPixel the minimum number of unchanged pixel in a row, before they get
+	 * replaced with transparent pixel, <code>0</code> to crop unchanged pixel only
+	 */
+	void optimizeImage(Png png,int[] intReference,int minimumNumberOfTransparentPixel) {
+		optimizeImage(png,intReference,minimumNumberOfTransparentPixel,null);
+	}
 
+	/**
+	 * Optimizes an area of the image, compared to the given reference, which is the content of the output buffer
+	 * before the image is rendered.
+	 * <br>The area is handled like a separate image, the offsets are relative to the whole image.
+	 * 
+	 * @param png
+	 * @param intReference the output buffer as RGB int array, not modified
+	 * @param minimumNumberOfTransparentPixel the minimum number of unchanged pixel in a row, before they get
+	 * replaced with transparent pixel, <code>0</code> to crop unchanged pixel only
+	 * @param area the area of the image to optimize, or <code>null</code> for the whole image
+	 */
+	void optimizeImage(Png png,int[] intReference,int minimumNumberOfTransparentPixel,Rectangle area) {
 		ImageData imageData=png.getImageData();
 		AnimData animData=png.getAnimData();
 		this.width=imageData.getWidth();
 		this.height=imageData.getHeight();
 
-		Png pngPrevious=png.getPreviousPng();
-		ImageData imageDataPrevious=pngPrevious.getImageData();
-
-		ColourRGB transparentColour=animData.getUnusedColour();
-		int[] intImage=imageData.getRgbInts().clone();
-		int[] intReference=imageDataPrevious.getRgbInts().clone();
+		int transparentColour=animData.getUnusedColour().getColour();
+		int[] intImage=imageData.getRgbInts();
 
-		int minimumNumberOfTransparentPixel=png.getBuilder().getMinimumNumberOfTransparentPixel();
+		if(area!=null) {
+			intImage=copyArea(intImage,area);
+			intReference=copyArea(intReference,area);
+			this.width=area.width;
+			this.height=area.height;
+		}
 		if(minimumNumberOfTransparentPixel>0){
-			replaceUnchangedPixelWithTransparentPixelNew(intImage,intReference,transparentColour.getColour(),minimumNumberOfTransparentPixel);
-			intImage=cropTransparentPixel(intImage,transparentColour.getColour());
+			if(area==null) {
+				intImage=intImage.clone();
+			}
+			replaceUnchangedPixelWithTransparentPixel(intImage,intReference,transparentColour,minimumNumberOfTransparentPixel);
 		}else {
-			intImage=cropUnchangedPixel(intImage,intReference);
+			findChangedPixel(intImage,intReference);
+		}
+		intImage=crop(intImage,transparentColour);
+		if(area!=null) {
+			offsetX+=area.x;
+			offsetY+=area.y;
 		}
 		
-		if(animData.getNumberOfColours()>256) {
+		if(animData.getColourType()==ColourType.TRUECOLOUR) {
 			this.imagedata=ImageTools.createByteRGBfromIntRGB(intImage);
-		}else if(animData.isGreyscale()){
+		}else if(animData.getColourType()==ColourType.GREYSCALE){
 			this.imagedata=ImageTools.createByteGreyscaleFromIntGreyscale(intImage);
 		}else {
 			this.imagedata=imageData.convertToPaletteImage(intImage);
 		}
 	}
 
-	private void replaceUnchangedPixelWithTransparentPixelNew(int[] intImage,int[] intReference,int transparentPixel, int min) {
-		pixelcompareloop:
-		for(int i=0;i<intImage.length-min;i++) {
-			int s=i+min;
-			for(;i<s;i++) {
-				if(intImage[i]!=intReference[i]) {
-					continue pixelcompareloop;
-				}
-			}
-			for(i-=min;i<s;i++) {
-				intImage[i]=transparentPixel;
-			}
-			for(;i<intImage.length;i++) {
-				if(intImage[i]==intReference[i]) {
-					intImage[i]=transparentPixel;
+	/**
+	 * Replaces runs of at least <code>min</code> unchanged pixel with transparent pixel, and finds the bounding box of
+	 * the remaining pixel.
+	 * <br>The change mask is created in one row-major pass, the runs are then found 64 pixel at a time in the mask.
+	 * <br>The image is handled as one long row, so a run may continue on the next line. A run at the end of the image
+	 * has to be longer than <code>min</code>.
+	 * 
+	 * @param intImage the image, unchanged pixel get replaced
+	 * @param intReference the reference image
+	 * @param transparentPixel the transparent colour
+	 * @param min the minimum number of unchanged pixel in a row
+	 */
+	private void replaceUnchangedPixelWithTransparentPixel(int[] intImage,int[] intReference,int transparentPixel, int min) {
+		resetBoundingBox();
+		final int length=intImage.length;
+		long[] changeMask=PixelDiff.changeMask(intImage,intReference);
+		int i=0;
+		while(i<length) {
+			int indexUnchanged=i;
+			i=nextChangedPixel(changeMask,i,length);
+			int numberOfUnchangedPixel=i-indexUnchanged;
+			if(numberOfUnchangedPixel>0) {
+				if(i<length?numberOfUnchangedPixel>=min:numberOfUnchangedPixel>min) {
+					Arrays.fill(intImage,indexUnchanged,i,transparentPixel);
 				}else {
-					break;
+					addToBoundingBox(indexUnchanged,i-1);
 				}
 			}
+			if(i<length) {
+				int indexChanged=i;
+				i=nextUnchangedPixel(changeMask,i,length);
+				addToBoundingBox(indexChanged,i-1);
+			}
 		}
 	}
-	
-	private int[] cropTransparentPixel(int[] intImage, int transparentColour) {
-		int top;
-		searchTopBorder:
-			for(top=0;top<height-1;top++) {//-1: when cropping two identical images, at least the last line should remain
-				for(int x=0;x<width;x++) {
-					if(intImage[top*width+x]!=transparentColour) {
-						break searchTopBorder;
-					}
-				}
-			}
-		
-		int bottom;
-		searchBottomBorder:
-			for(bottom=height-1;bottom>top;bottom--) {
-				for(int x=0;x<width;x++) {
-					if(intImage[bottom*width+x]!=transparentColour) {
-						break searchBottomBorder;
-					}
-				}
-			}
 
-		int left;
-		searchLeftBorder:
-			for(left=0;left<width-1;left++) {//-1: when cropping two identical images, at least the last column should remain
-				for(int y=top;y<=bottom;y++) {
-					int index=y*width+left;
-					if(intImage[index]!=transparentColour) {
-						break searchLeftBorder;
-					}
-				}
+	/**
+	 * Finds the bounding box of the changed pixel, using the change mask to find the first and the last changed pixel
+	 * of each line, so memory is read row by row.
+	 * 
+	 * @param intImage the image
+	 * @param intReference the reference image
+	 */
+	private void findChangedPixel(int[] intImage, int[] intImageReference) {
+		resetBoundingBox();
+		long[] changeMask=PixelDiff.changeMask(intImage,intImageReference);
+		for(int y=0;y<height;y++) {
+			int indexLine=y*width;
+			int indexEnd=indexLine+width;
+			int indexLeft=nextChangedPixel(changeMask,indexLine,indexEnd);
+			if(indexLeft==indexEnd) {
+				continue;
 			}
+			int indexRight=previousChangedPixel(changeMask,indexEnd-1);
+			addToBoundingBox(indexLeft,indexRight);
+		}
+	}
 
-		int right;
-		searchRightBorder:
-			for(right=width-1;right>left;right--) {
-				for(int y=top;y<=bottom;y++) {
-					int index=y*width+right;
-					if(intImage[index]!=transparentColour) {
-						break searchRightBorder;
-					}
-				}
+	/** @return the index of the first changed pixel from <code>index</code>, or <code>end</code> if there is none */
+	private static int nextChangedPixel(long[] changeMask,int index,int end) {
+		while(index<end) {
+			long bits=changeMask[index>>>6]>>>index;
+			if(bits!=0) {
+				index+=Long.numberOfTrailingZeros(bits);
+				return index<end?index:end;
 			}
+			index=(index|63)+1;
+		}
+		return end;
+	}
 
-		int widthOriginal=width;
-		offsetX=left;
-		offsetY=top;
-		this.width=right-left+1;
-		this.height=bottom-top+1;
-
-		int[] newInts=new int[this.height*this.width];
-		int index=0;
-		for(int y=top;y<=bottom;y++) {
-			for(int x=left;x<=right;x++) {
-				newInts[index++]=intImage[y*widthOriginal+x];
+	/** @return the index of the first unchanged pixel from <code>index</code>, or <code>end</code> if there is none */
+	private static int nextUnchangedPixel(long[] changeMask,int index,int end) {
+		while(index<end) {
+			long bits=~changeMask[index>>>6]>>>index;
+			if(bits!=0) {
+				index+=Long.numberOfTrailingZeros(bits);
+				return index<end?index:end;
 			}
+			index=(index|63)+1;
 		}
-		return newInts;
+		return end;
 	}
 
-	private int[] cropUnchangedPixel(int[] intImage, int[] intImageReference) {
-		int top;
-		searchTopBorder:
-			for(top=0;top<height-1;top++) {//-1: when cropping two identical images, at least the last line should remain
-				for(int x=0;x<width;x++) {
-					if(intImage[top*width+x]!=intImageReference[top*width+x]) {
-						break searchTopBorder;
-					}
-				}
+	/** @return the index of the last changed pixel up to <code>index</code>, there must be one */
+	private static int previousChangedPixel(long[] changeMask,int index) {
+		while(true) {
+			long bits=changeMask[index>>>6]<<(63-(index&63));
+			if(bits!=0) {
+				return index-Long.numberOfLeadingZeros(bits);
 			}
+			index=(index&~63)-1;
+		}
+	}
 
-		int bottom;
-		searchBottomBorder:
-			for(bottom=height-1;bottom>top;bottom--) {
-				for(int x=0;x<width;x++) {
-					if(intImage[bottom*width+x]!=intImageReference[bottom*width+x]) {
-						break searchBottomBorder;
-					}
-				}
-			}
+	private void resetBoundingBox() {
+		boxLeft=width;
+		boxRight=-1;
+		boxTop=height;
+		boxBottom=-1;
+	}
 
-		int left;
-		searchLeftBorder:
-			for(left=0;left<width-1;left++) {//-1: when cropping two identical images, at least the last column should remain
-				for(int y=top;y<=bottom;y++) {
-					int index=y*width+left;
-					if(intImage[index]!=intImageReference[index]) {
-						break searchLeftBorder;
-					}
-				}
+	/**
+	 * Extends the bounding box by the pixel from indexFrom to indexTo.
+	 * <br>If the pixel span several lines, the bounding box gets the full width.
+	 */
+	private void addToBoundingBox(int indexFrom,int indexTo) {
+		int yFrom=indexFrom/width;
+		int yTo=indexTo/width;
+		if(yFrom<boxTop) {
+			boxTop=yFrom;
+		}
+		if(yTo>boxBottom) {
+			boxBottom=yTo;
+		}
+		if(yFrom!=yTo) {
+			boxLeft=0;
+			boxRight=width-1;
+		}else {
+			int xFrom=indexFrom-yFrom*width;
+			int xTo=indexTo-yFrom*width;
+			if(xFrom<boxLeft) {
+				boxLeft=xFrom;
 			}
-
-		int right;
-		searchRightBorder:
-			for(right=width-1;right>left;right--) {
-				for(int y=top;y<=bottom;y++) {
-					int index=y*width+right;
-					if(intImage[index]!=intImageReference[index]) {
-						break searchRightBorder;
-					}
-				}
+			if(xTo>boxRight) {
+				boxRight=xTo;
 			}
-		
+		}
+	}
+
+	private int[] copyArea(int[] intImage,Rectangle area) {
+		int[] intArea=new int[area.width*area.height];
+		for(int y=0;y<area.height;y++) {
+			System.arraycopy(intImage,(area.y+y)*width+area.x,intArea,y*area.width,area.width);
+		}
+		return intArea;
+	}
+
+	/**
+	 * Crops the image to the bounding box.
+	 * <br>If the bounding box is empty, e.g. when comparing two identical images, the last pixel remains.
+	 * 
+	 * @param intImage the image
+	 * @param transparentColour the transparent colour, to check if the cropped image contains transparent pixel
+	 * @return the cropped image
+	 */
+	private int[] crop(int[] intImage, int transparentColour) {
+		if(boxBottom<0) {
+			boxTop=height-1;
+			boxBottom=height-1;
+			boxLeft=width-1;
+			boxRight=width-1;
+		}
 		int widthOriginal=width;
-		offsetX=left;
-		offsetY=top;
-		this.width=right-left+1;
-		this.height=bottom-top+1;
+		offsetX=boxLeft;
+		offsetY=boxTop;
+		this.width=boxRight-boxLeft+1;
+		this.height=boxBottom-boxTop+1;
 
 		int[] newInts=new int[this.height*this.width];
 		int index=0;
-		for(int y=top;y<=bottom;y++) {
-			for(int x=left;x<=right;x++) {
-				newInts[index++]=intImage[y*widthOriginal+x];
+		boolean hasTransparentPixel=false;
+		for(int y=boxTop;y<=boxBottom;y++) {
+			int indexLine=y*widthOriginal;
+			for(int x=boxLeft;x<=boxRight;x++) {
+				int pixel=intImage[indexLine+x];
+				hasTransparentPixel|=pixel==transparentColour;
+				newInts[index++]=pixel;
 			}
 		}
+		this.flagHasTransparentPixel=hasTransparentPixel;
 		return newInts;
 	}
 
@@ -206,6 +278,11 @@ public class ImagedataOptimizer {
 		return height;
 	}
 
+	/** @return <code>true</code> if unchanged pixel have been replaced with transparent pixel */
+	boolean hasTransparentPixel() {
+		return flagHasTransparentPixel;
+	}
+
 	int getOffsetX() {
 		return offsetX;
 	}
@@ -0,0 +1,96 @@
+package lunartools.apng;
+
+/**
+ * Java Flight Recorder events of the encoding stages, to find them in a recording, e.g. to correlate GC pauses with
+ * the allocations of the colour analysis.
+ * <br>Each stage calls <code>begin...()</code> before and <code>commit...()</code> after its work.
+ * <br>This is the implementation for Java 8, which records nothing, <code>begin...()</code> always returns
+ * <code>null</code>. The multi-release jar contains the implementation for Java 11 and later, that creates the
+ * events using <code>jdk.jfr</code>.
+ *
+ * @author Thomas Mattel
+ */
+final class JfrEvents {
+
+	private JfrEvents() {}
+
+	/** @return the started event, or <code>null</code> if not recorded */
+	static Object beginFrameEncoded() {
+		return null;
+	}
+
+	/**
+	 * @param event the event returned by beginFrameEncoded(), might be <code>null</code>
+	 * @param frameIndex the index of the image
+	 * @param width the width of the encoded area
+	 * @param height the height of the encoded area
+	 * @param bytesIn the size of the filtered scanlines
+	 * @param bytesOut the size of the compressed image data
+	 */
+	static void commitFrameEncoded(Object event,int frameIndex,int width,int height,long bytesIn,long bytesOut) {}
+
+	/** @return the started event, or <code>null</code> if not recorded */
+	static Object beginImageFiltered() {
+		return null;
+	}
+
+	/**
+	 * @param event the event returned by beginImageFiltered(), might be <code>null</code>
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @param bytesIn the size of the pixeldata
+	 * @param bytesOut the size of the filtered scanlines
+	 */
+	static void commitImageFiltered(Object event,int width,int height,long bytesIn,long bytesOut) {}
+
+	/** @return the started event, or <code>null</code> if not recorded */
+	static Object beginDeflateBlock() {
+		return null;
+	}
+
+	/**
+	 * @param event the event returned by beginDeflateBlock(), might be <code>null</code>
+	 * @param bytesIn the size of the uncompressed block
+	 * @param bytesOut the size of the compressed block
+	 */
+	static void commitDeflateBlock(Object event,long bytesIn,long bytesOut) {}
+
+	/** @return the started event, or <code>null</code> if not recorded */
+	static Object beginColourAnalysis() {
+		return null;
+	}
+
+	/**
+	 * @param event the event returned by beginColourAnalysis(), might be <code>null</code>
+	 * @param numberOfImages the number of images analyzed
+	 * @param numberOfColours the number of colours found
+	 */
+	static void commitColourAnalysis(Object event,int numberOfImages,int numberOfColours) {}
+
+	/** @return the started event, or <code>null</code> if not recorded */
+	static Object beginQuantization() {
+		return null;
+	}
+
+	/**
+	 * @param event the event returned by beginQuantization(), might be <code>null</code>
+	 * @param numberOfImages the number of images quantized
+	 * @param width the width of the images
+	 * @param height the height of the images
+	 * @param numberOfColours the maximum number of colours
+	 */
+	static void commitQuantization(Object event,int numberOfImages,int width,int height,int numberOfColours) {}
+
+	/** @return the started event, or <code>null</code> if not recorded */
+	static Object beginChunkWrite() {
+		return null;
+	}
+
+	/**
+	 * @param event the event returned by beginChunkWrite(), might be <code>null</code>
+	 * @param chunkClass the class of the chunk
+	 * @param bytes the total chunk length
+	 */
+	static void commitChunkWrite(Object event,Class<?> chunkClass,long bytes) {}
+
+}
@@ -0,0 +1,107 @@
+package lunartools.apng;
+
+import java.util.Arrays;
+
+/**
+ * The colour palette of an indexed colour animation, and a lookup of the palette index of an RGB colour.
+ * <br>Index 0 is the transparent colour, all colours not in the palette map to index 0.
+ * <br>Immutable, so one instance is shared by all images of the animation, which might be converted concurrently.
+ *
+ * @author Thomas Mattel
+ */
+class Palette {
+	private final int[] colours;
+	private final int[] sortedColours;
+	private final byte[] sortedIndices;
+
+	/**
+	 * Creates a palette.
+	 *
+	 * @param colours the RGB colours of the palette, index 0 is the transparent colour
+	 */
+	Palette(int[] colours) {
+		this.colours=colours.clone();
+		long[] colourAndIndex=new long[colours.length-1];
+		for(int i=1;i<colours.length;i++) {
+			colourAndIndex[i-1]=((long)(colours[i]&0xffffff)<<8)|i;
+		}
+		Arrays.sort(colourAndIndex);
+		//if a colour is in the palette more than once, the highest index is used
+		int count=0;
+		for(int i=0;i<colourAndIndex.length;i++) {
+			if(i+1<colourAndIndex.length && (colourAndIndex[i]>>8)==(colourAndIndex[i+1]>>8)) {
+				continue;
+			}
+			colourAndIndex[count++]=colourAndIndex[i];
+		}
+		sortedColours=new int[count];
+		sortedIndices=new byte[count];
+		for(int i=0;i<count;i++) {
+			sortedColours[i]=(int)(colourAndIndex[i]>>8);
+			sortedIndices[i]=(byte)colourAndIndex[i];
+		}
+	}
+
+	/** @return the number of palette entries, including the transparent colour */
+	int size() {
+		return colours.length;
+	}
+
+	/** @return the RGB colours of the palette, index 0 is the transparent colour */
+	int[] getColours() {
+		return colours.clone();
+	}
+
+	/**
+	 * @param index palette index
+	 * @return the RGB colour of the palette index
+	 */
+	int getColour(int index) {
+		return colours[index];
+	}
+
+	/**
+	 * @param colour RGB colour
+	 * @return <code>true</code> if the colour is in the palette, not counting the transparent colour
+	 */
+	boolean contains(int colour) {
+		return Arrays.binarySearch(sortedColours,colour&0xffffff)>=0;
+	}
+
+	/**
+	 * Converts RGB pixel to palette indices.
+	 *
+	 * @param rgbInts pixel as RGB int array
+	 * @return pixel as palette index bytearray
+	 */
+	byte[] toIndexBytes(int[] rgbInts) {
+		byte[] bytes=new byte[rgbInts.length];
+		int previousColour=-1;
+		byte previousIndex=0;
+		for(int i=0;i<rgbInts.length;i++) {
+			int colour=rgbInts[i]&0xffffff;
+			if(colour!=previousColour) {
+				previousColour=colour;
+				int k=Arrays.binarySearch(sortedColours,colour);
+				previousIndex=k<0?0:sortedIndices[k];
+			}
+			bytes[i]=previousIndex;
+		}
+		return bytes;
+	}
+
+	@Override
+	public String toString() {
+		StringBuffer sb=new StringBuffer();
+		sb.append("[");
+		for(int i=0;i<colours.length;i++) {
+			if(i>0) {
+				sb.append(", ");
+			}
+			sb.append(Integer.toHexString(colours[i]));
+		}
+		sb.append("]");
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,34 @@
+package lunartools.apng;
+
+/**
+ * Compares an image with a reference image, pixel by pixel.
+ * <br>This is the scalar implementation for Java 8. The multi-release jar contains an implementation for Java 17 and
+ * later, that compares several pixel at once using the Vector API, if the module <code>jdk.incubator.vector</code> is
+ * added to the JVM (<code>--add-modules jdk.incubator.vector</code>), and falls back to this loop otherwise.
+ *
+ * @author Thomas Mattel
+ */
+final class PixelDiff {
+
+	private PixelDiff() {}
+
+	/**
+	 * Creates the change mask of the given images, one bit for each pixel, set if the pixel differs from the reference.
+	 * <br>The bit of pixel <code>i</code> is bit <code>i%64</code> of <code>mask[i/64]</code>.
+	 *
+	 * @param intImage the image as RGB int array
+	 * @param intReference the reference image as RGB int array, at least as long as the image
+	 * @return the change mask
+	 */
+	static long[] changeMask(int[] intImage,int[] intReference) {
+		final int length=intImage.length;
+		long[] mask=new long[(length+63)>>>6];
+		for(int i=0;i<length;i++) {
+			if(intImage[i]!=intReference[i]) {
+				mask[i>>>6]|=1L<<i;
+			}
+		}
+		return mask;
+	}
+
+}
@@ -1,5 +1,6 @@
 package lunartools.apng;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -10,8 +11,22 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterOutputStream;
 
@@ -19,7 +34,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import lunartools.ByteTools;
-import lunartools.FileTools;
+import lunartools.apng.ApngBuilder.FrameStorage;
 import lunartools.apng.chunks.Chunk;
 import lunartools.apng.chunks.ChunkFactory;
 import lunartools.apng.chunks.Chunk_IDAT;
@@ -45,11 +60,12 @@ import lunartools.apng.chunks.Chunk_zTXt;
 public class Png {
 	private static Logger logger = LoggerFactory.getLogger(Png.class);
 	private static final byte[] PNG_SIGNATURE=new byte[] {(byte)0x89,(byte)0x50,(byte)0x4e,(byte)0x47,(byte)0x0d,(byte)0x0a,(byte)0x1a,(byte)0x0a};
-	private ApngBuilder builder;
+	private ApngConfig config;
 	private ImageData imageData;
 	private Png firstPng=this;
 	private Png previousPng;
 	private AnimData animData=new AnimData(this);
+	private FrameStore frameStore;
 
 	private boolean flagImageDataProcessed;
 
@@ -60,30 +76,53 @@ public class Png {
 	private int delay;
 	private int offsetX;
 	private int offsetY;
+	private ApngDisposeOperation disposeOperation=ApngDisposeOperation.NONE;
+	private ApngBlendOperation blendOperation=ApngBlendOperation.OVER;
+	private ArrayList<EncodedFrame> subFrames;
+	/** The IDAT chunks of the chunklist, in order */
+	private ArrayList<Chunk_IDAT> idatChunks;
+	private final EncodeStatistics encodeStatistics=new EncodeStatistics();
+	private int frameIndex;
+	/** The future of the asynchronous encoding, or <code>null</code> */
+	private volatile Future<?> encodingFuture;
+	/** The executor of the running encoding, or <code>null</code> */
+	private volatile Executor encodingExecutor;
 
 	/**
 	 * Creates a Png object from the given image file.
 	 * <br>Image file format: Anything that Java can read.
 	 * 
-	 * @param builder the calling ApngBuilder object
+	 * @param config the settings of the calling ApngBuilder object
 	 * @param fileImage the File to build the Png object
 	 */
-	Png(ApngBuilder builder,File fileImage){
-		this.builder=builder;
+	Png(ApngConfig config,File fileImage){
+		this.config=config;
 		this.imageData=new ImageData(this,fileImage);
 	}
 
 	/**
 	 * Creates a Png object from the given BufferedImage.
 	 * 
-	 * @param builder the calling ApngBuilder object
+	 * @param config the settings of the calling ApngBuilder object
 	 * @param image the BufferedImage to build the Png object
 	 */
-	Png(ApngBuilder builder,BufferedImage bufferedImage){
-		this.builder=builder;
+	Png(ApngConfig config,BufferedImage bufferedImage){
+		this.config=config;
 		this.imageData=new ImageData(this,bufferedImage);
 	}
 
+	/**
+	 * Creates a Png object from the given BufferedImage, using the given common animation data.
+	 * 
+	 * @param config the settings of the calling ApngBuilder object
+	 * @param image the BufferedImage to build the Png object
+	 * @param animData the common data of the animation this Png object belongs to
+	 */
+	Png(ApngConfig config,BufferedImage bufferedImage,AnimData animData){
+		this(config,bufferedImage);
+		this.animData=animData;
+	}
+
 	ImageData getImageData() {
 		return imageData;
 	}
@@ -125,8 +164,8 @@ public class Png {
 	byte[] getDecompressedImagedataBytes() {
 		processImageData();
 		ByteArrayOutputStream baos=new ByteArrayOutputStream();
+		Inflater inflater=ZlibPool.acquireInflater();
 		try {
-			Inflater inflater=new Inflater();
 			InflaterOutputStream inflaterOutputStream=new InflaterOutputStream(baos,inflater);
 			inflaterOutputStream.write(getCompressedImagedataBytes());
 			inflaterOutputStream.finish();
@@ -134,6 +173,8 @@ public class Png {
 			inflaterOutputStream.close();
 		} catch (Exception e) {
 			throw new RuntimeException("Error reading imagedata",e);
+		}finally {
+			ZlibPool.releaseInflater(inflater);
 		}
 		return baos.toByteArray();
 	}
@@ -146,6 +187,7 @@ public class Png {
 		if(flagImageDataProcessed) {
 			return;
 		}
+		checkCancelled();
 		flagImageDataProcessed=true;
 		try {
 			Object imageSource=imageData.getImageSource();
@@ -163,16 +205,30 @@ public class Png {
 	}
 
 	private void processPngFile(File imageFile) throws IOException {
-		if(builder.isReencodePngFilesEnabled()) {
+		if(config.isReencodePngFilesEnabled()) {
 			createPng();
 		}else {
-			this.baPng=FileTools.readFileAsByteArray(imageFile);
-			parsePng();
+			parsePng(mapPngFile(imageFile));
+		}
+	}
+
+	/**
+	 * Maps the given PNG file into memory, read-only.
+	 * <br>The image data chunks keep slices of the mapping, so the image data is written to the APNG without being
+	 * copied to the heap. The mapping is released when the chunks are garbage collected.
+	 * 
+	 * @param imageFile
+	 * @return the content of the file
+	 * @throws IOException
+	 */
+	private static ByteBuffer mapPngFile(File imageFile) throws IOException {
+		try(FileChannel channel=FileChannel.open(imageFile.toPath(),StandardOpenOption.READ)){
+			return channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
 		}
 	}
 
 	private void createPng() {
-		if(builder.isPngEncoderEnabled()) {
+		if(config.isPngEncoderEnabled()) {
 			PngService.createPngViaPngEncoder(this);
 		}else {
 			PngService.createPngViaImageIO(this);
@@ -183,9 +239,10 @@ public class Png {
 	private void parsePng(){
 		try {
 			chunklist=new ArrayList<Chunk>();
+			idatChunks=null;
 
 			int index=PNG_SIGNATURE.length;
-			ChunkFactory chunkFactory=new ChunkFactory();
+			ChunkFactory chunkFactory=config.getChunkFactory();
 
 			Chunk chunk;
 			do {
@@ -201,6 +258,34 @@ public class Png {
 		}
 	}
 
+	/**
+	 * Parses the chunks of a PNG file, only the chunk headers are read.
+	 * <br>The CRC of a chunk is verified when the chunk is used.
+	 * 
+	 * @param png the content of the PNG file
+	 */
+	private void parsePng(ByteBuffer png){
+		try {
+			chunklist=new ArrayList<Chunk>();
+			idatChunks=null;
+
+			int index=PNG_SIGNATURE.length;
+			ChunkFactory chunkFactory=config.getChunkFactory();
+
+			Chunk chunk;
+			do {
+				chunk=chunkFactory.createChunk(png,index);
+				chunklist.add(chunk);
+				if(chunk instanceof Chunk_IHDR) {
+					this.chunk_IHDR=(Chunk_IHDR)chunk;
+				}
+				index+=chunk.getChunkLength();
+			}while(!(chunk instanceof Chunk_IEND));
+		} catch (Exception e) {
+			throw new RuntimeException("error parsing PNG file",e);
+		}
+	}
+
 	public void addPng(Png png) {
 		if(png.chunklist!=null) {
 			throw new RuntimeException("adding apng not supported yet");
@@ -213,6 +298,13 @@ public class Png {
 		}else {
 			pngPrevious=listPng.get(i-1);
 		}
+		if(config.getFrameStorage()!=FrameStorage.HEAP) {
+			if(frameStore==null) {
+				frameStore=new FrameStore(config.getFrameStorage(),config.getMemoryBudget());
+				imageData.setFrameStore(frameStore);
+			}
+			png.getImageData().setFrameStore(frameStore);
+		}
 		int[] rgbIntsPrevious=pngPrevious.getImageData().getRgbInts();
 		int[] rgbIntsPngToAdd=png.getImageData().getRgbInts();
 		if(Arrays.equals(rgbIntsPrevious,rgbIntsPngToAdd)) {
@@ -220,11 +312,26 @@ public class Png {
 			logger.trace("skipped identical image");
 			return;
 		}
+		if(config.isPngEncoderEnabled()) {
+			AnimData animData=getAnimData();
+			animData.addFirstImageColours(rgbIntsPrevious);
+			animData.addImageColours(rgbIntsPngToAdd);
+		}
 		png.setFirstPng(this);
 		png.setPreviousPng(pngPrevious);
+		png.setFrameIndex(listPng.size()+1);
 		listPng.add(png);
 	}
 
+	/** @param frameIndex the index of this image in the animation, identical images are skipped */
+	void setFrameIndex(int frameIndex) {
+		this.frameIndex=frameIndex;
+	}
+
+	int getFrameIndex() {
+		return frameIndex;
+	}
+
 	void setFirstPng(Png png) {
 		this.firstPng=png;
 	}
@@ -245,7 +352,7 @@ public class Png {
 	 * Writes this PNG to the given file.
 	 * <br>All Png objects that were added to this Png object, will be combined to an APNG animation.
 	 * <br>If there are no added Png Objects, a PNG file will be created (not an one-image-APNG).
-	 * <br>How the (A)PNG is created depends on the settings of the builder that created this Png object.
+	 * <br>How the (A)PNG is created depends on the settings of the builder when this Png object was created.
 	 * 
 	 * @param file The (A)PNG file to be created
 	 * @throws FileNotFoundException
@@ -261,22 +368,20 @@ public class Png {
 	 * Returns this PNG as bytearray.
 	 * <br>All Png objects that were added to this Png object, will be combined to an APNG animation.
 	 * <br>If there are no added Png Objects, a PNG file will be created (not an one-image-APNG).
-	 * <br>How the (A)PNG is created depends on the settings of the builder that created this Png object.
+	 * <br>How the (A)PNG is created depends on the settings of the builder when this Png object was created.
 	 * 
 	 * @return PNG as bytearray
 	 * @throws IOException
 	 */
 	public byte[] toByteArray() throws IOException {
-		ByteArrayOutputStream baos=new ByteArrayOutputStream();
-		writePngToStream(baos,null);
-		return baos.toByteArray();
+		return toByteArray(null);
 	}
 
 	/**
 	 * Returns this PNG as bytearray.
 	 * <br>All Png objects that were added to this Png object, will be combined to an APNG animation.
 	 * <br>If there are no added Png Objects, a PNG file will be created (not an one-image-APNG).
-	 * <br>How the (A)PNG is created depends on the settings of the builder that created this Png object.
+	 * <br>How the (A)PNG is created depends on the settings of the builder when this Png object was created.
 	 * <br>While processing, <code>ProgressCallback</code> is calles for each image.
 	 * 
 	 * @param progressCallback
@@ -284,16 +389,215 @@ public class Png {
 	 * @throws IOException
 	 */
 	public byte[] toByteArray(ProgressCallback progressCallback) throws IOException {
-		ByteArrayOutputStream baos=new ByteArrayOutputStream();
-		writePngToStream(baos,progressCallback);
-		return baos.toByteArray();
+		ArrayList<Chunk> chunklistWork=createChunklist(progressCallback);
+		int size=PNG_SIGNATURE.length;
+		for(int i=0;i<chunklistWork.size();i++) {
+			size+=chunklistWork.get(i).getChunkLength();
+		}
+		ByteBuffer byteBuffer=ByteBuffer.allocate(size);
+		byteBuffer.put(PNG_SIGNATURE);
+		for(int i=0;i<chunklistWork.size();i++) {
+			Chunk chunk=chunklistWork.get(i);
+			Object jfrEvent=JfrEvents.beginChunkWrite();
+			ByteBuffer[] byteBuffers=chunk.toByteBuffers();
+			for(int k=0;k<byteBuffers.length;k++) {
+				byteBuffer.put(byteBuffers[k]);
+			}
+			JfrEvents.commitChunkWrite(jfrEvent,chunk.getClass(),chunk.getChunkLength());
+		}
+		return byteBuffer.array();
+	}
+
+	/**
+	 * Creates this PNG asynchronously, like <code>toByteArray()</code>.
+	 * <br>The returned future can be cancelled. The encoding then stops before the next image or deflate block, and the
+	 * pixel and encoded data of all images are released. A cancelled Png object can not be encoded again.
+	 * <br>The images are encoded concurrently, if a parallelism or an executor is set in the ApngBuilder. The given
+	 * executor should not be the executor of the ApngBuilder, as the encoding waits for the images.
+	 * 
+	 * @param executor the executor running the encoding
+	 * @return the future of the (A)PNG data
+	 */
+	public CompletableFuture<byte[]> encodeAsync(Executor executor) {
+		return runAsync(this::toByteArray,executor);
+	}
+
+	/**
+	 * Writes this PNG to the given channel asynchronously, like <code>writeTo(channel)</code>.
+	 * <br>The returned future can be cancelled like the future of <code>encodeAsync(executor)</code>. The channel is
+	 * not closed.
+	 * 
+	 * @param channel
+	 * @param executor the executor running the encoding
+	 * @return the future completed when the (A)PNG is written
+	 * @see #encodeAsync(Executor)
+	 */
+	public CompletableFuture<Void> writeAsync(WritableByteChannel channel,Executor executor) {
+		if(channel==null) {
+			throw new NullPointerException("channel");
+		}
+		return runAsync(() -> {
+			writeTo(channel);
+			return null;
+		},executor);
+	}
+
+	private <T> CompletableFuture<T> runAsync(Callable<T> encoding,Executor executor) {
+		if(executor==null) {
+			throw new NullPointerException("executor");
+		}
+		CompletableFuture<T> future=new CompletableFuture<T>();
+		setEncodingFuture(future);
+		executor.execute(() -> {
+			try {
+				future.complete(encode(encoding));
+			} catch (CancellationException e) {
+				//the future is cancelled already
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Sets the future of an asynchronous encoding of this (A)PNG, which stops the encoding when cancelled.
+	 * 
+	 * @param future the future of the encoding
+	 * @throws IllegalStateException if the previous encoding is in progress or has been cancelled
+	 */
+	void setEncodingFuture(Future<?> future) {
+		if(firstPng!=this) {
+			throw new IllegalStateException("png is part of an animation");
+		}
+		Future<?> encodingFuturePrevious=encodingFuture;
+		if(encodingFuturePrevious!=null) {
+			if(encodingFuturePrevious.isCancelled()) {
+				throw new IllegalStateException("encoding cancelled");
+			}
+			if(!encodingFuturePrevious.isDone()) {
+				throw new IllegalStateException("encoding in progress");
+			}
+		}
+		encodingFuture=future;
+	}
+
+	/**
+	 * Runs the given encoding of this (A)PNG, releasing all images if the encoding future gets cancelled.
+	 * 
+	 * @param encoding e.g. <code>toByteArray()</code>
+	 * @return the result of the encoding
+	 * @throws CancellationException if the encoding future has been cancelled
+	 * @throws Exception the exception of the encoding
+	 */
+	<T> T encode(Callable<T> encoding) throws Exception {
+		try {
+			checkCancelled();
+			return encoding.call();
+		} catch (CancellationException e) {
+			logger.debug("encoding cancelled");
+			releaseImages();
+			throw e;
+		}
+	}
+
+	/**
+	 * Checks if the asynchronous encoding of the (A)PNG this Png object belongs to has been cancelled.
+	 * 
+	 * @throws CancellationException if the encoding has been cancelled
+	 */
+	void checkCancelled() {
+		Future<?> future=firstPng.encodingFuture;
+		if(future!=null && future.isCancelled()) {
+			throw new CancellationException("encoding cancelled");
+		}
+	}
+
+	/**
+	 * Releases the pixel and the encoded data of all images, after the encoding has been cancelled.
+	 */
+	private void releaseImages() {
+		ArrayList<Png> pngs=new ArrayList<Png>(listPng.size()+1);
+		pngs.add(this);
+		pngs.addAll(listPng);
+		for(int i=0;i<pngs.size();i++) {
+			Png png=pngs.get(i);
+			png.imageData.release();
+			png.chunklist=null;
+			png.idatChunks=null;
+			png.subFrames=null;
+		}
+		if(frameStore!=null) {
+			frameStore.close();
+		}
+	}
+
+	/**
+	 * Writes this PNG to the given channel.
+	 * <br>All Png objects that were added to this Png object, will be combined to an APNG animation.
+	 * <br>If there are no added Png Objects, a PNG file will be created (not an one-image-APNG).
+	 * <br>How the (A)PNG is created depends on the settings of the builder when this Png object was created.
+	 * <br>The chunks are written with gathering writes, without copying them into a single buffer. While chunk write
+	 * events are recorded by the Java Flight Recorder, each chunk is written separately. The channel is not closed.
+	 * 
+	 * @param channel
+	 * @throws IOException
+	 */
+	public void writeTo(WritableByteChannel channel) throws IOException {
+		ArrayList<Chunk> chunklistWork=createChunklist(null);
+		Object jfrEvent=JfrEvents.beginChunkWrite();
+		if(jfrEvent!=null) {
+			//chunk write events are recorded, so each chunk is written separately
+			write(channel,new ByteBuffer[] {ByteBuffer.wrap(PNG_SIGNATURE)});
+			for(int i=0;i<chunklistWork.size();i++) {
+				Chunk chunk=chunklistWork.get(i);
+				if(i>0) {
+					jfrEvent=JfrEvents.beginChunkWrite();
+				}
+				write(channel,chunk.toByteBuffers());
+				JfrEvents.commitChunkWrite(jfrEvent,chunk.getClass(),chunk.getChunkLength());
+			}
+			return;
+		}
+		ArrayList<ByteBuffer> byteBuffers=new ArrayList<ByteBuffer>(chunklistWork.size()*3+1);
+		byteBuffers.add(ByteBuffer.wrap(PNG_SIGNATURE));
+		for(int i=0;i<chunklistWork.size();i++) {
+			Collections.addAll(byteBuffers,chunklistWork.get(i).toByteBuffers());
+		}
+		write(channel,byteBuffers.toArray(new ByteBuffer[byteBuffers.size()]));
+	}
+
+	/**
+	 * Writes all buffers to the given channel, using a gathering write if the channel supports it.
+	 * 
+	 * @param channel
+	 * @param byteBuffers
+	 * @throws IOException
+	 */
+	static void write(WritableByteChannel channel,ByteBuffer[] byteBuffers) throws IOException {
+		if(channel instanceof GatheringByteChannel) {
+			GatheringByteChannel gatheringByteChannel=(GatheringByteChannel)channel;
+			int index=0;
+			while(index<byteBuffers.length) {
+				gatheringByteChannel.write(byteBuffers,index,byteBuffers.length-index);
+				while(index<byteBuffers.length && !byteBuffers[index].hasRemaining()) {
+					index++;
+				}
+			}
+			return;
+		}
+		for(int i=0;i<byteBuffers.length;i++) {
+			while(byteBuffers[i].hasRemaining()) {
+				channel.write(byteBuffers[i]);
+			}
+		}
 	}
 
 	/**
 	 * Writes this PNG to the given outputstream.
 	 * <br>All Png objects that were added to this Png object, will be combined to an APNG animation.
 	 * <br>If there are no added Png Objects, a PNG file will be created (not an one-image-APNG).
-	 * <br>How the (A)PNG is created depends on the settings of the builder that created this Png object.
+	 * <br>How the (A)PNG is created depends on the settings of the builder when this Png object was created.
 	 * <br>While processing, <code>ProgressCallback</code> is calles for each image.
 	 * 
 	 * @param outputStream
@@ -301,72 +605,175 @@ public class Png {
 	 * @throws IOException
 	 */
 	private void writePngToStream(OutputStream outputStream,ProgressCallback progressCallback) throws IOException {
-		if(progressCallback!=null){
-			progressCallback.setProgressStep(1);
-		}
-		processImageData();
-		ArrayList<Chunk> chunklistWork=chunklist;
-		if(listPng.size()>0) {
-			chunklistWork=createApngChunklist(progressCallback);
-		}
+		ArrayList<Chunk> chunklistWork=createChunklist(progressCallback);
 		outputStream.write(PNG_SIGNATURE);
 		for(int i=0;i<chunklistWork.size();i++) {
 			Chunk chunk=chunklistWork.get(i);
-			outputStream.write(chunk.toByteArray());
+			Object jfrEvent=JfrEvents.beginChunkWrite();
+			chunk.writeTo(outputStream);
+			JfrEvents.commitChunkWrite(jfrEvent,chunk.getClass(),chunk.getChunkLength());
 		}
 	}
 
-	private ArrayList<Chunk> createApngChunklist(ProgressCallback progressCallback) {
-		@SuppressWarnings("unchecked")
-		ArrayList<Chunk> apngChunklist=(ArrayList<Chunk>)chunklist.clone();
-		int fcTL_sequenceNumber=0;
-		Chunk chunk_acTL=new Chunk_acTL(listPng.size()+1,0);
-		Chunk chunk_fcTL=new Chunk_fcTL(fcTL_sequenceNumber,getWidth(),getHeight(),0,0,delay,1000,ApngDisposeOperation.NONE,ApngBlendOperation.SOURCE);
+	/**
+	 * Processes all images, and returns the chunks of the PNG, or of the APNG if Png objects were added.
+	 * 
+	 * @param progressCallback
+	 * @return the chunks from IHDR to IEND
+	 */
+	ArrayList<Chunk> createChunklist(ProgressCallback progressCallback) {
+		return runEncoding(() -> {
+			checkCancelled();
+			if(progressCallback!=null){
+				progressCallback.setProgressStep(1);
+			}
+			processImageData();
+			if(listPng.size()>0) {
+				try {
+					return createApngChunklist(progressCallback,getFrameExecutor());
+				}finally {
+					if(frameStore!=null) {
+						frameStore.close();
+					}
+				}
+			}
+			notifyEncodeListener();
+			return chunklist;
+		});
+	}
 
-		for(int i=0;i<apngChunklist.size();i++) {
-			if(apngChunklist.get(i) instanceof Chunk_IDAT) {
-				apngChunklist.add(i, chunk_acTL);
-				apngChunklist.add(i+1, chunk_fcTL);
-				break;
+	/**
+	 * Runs an encoding of this (A)PNG, providing the executor for the images, the candidates of an image, and the
+	 * deflate blocks of an image.
+	 * <br>The executor is the executor of the ApngBuilder. If none is set, but a parallelism or a deflate parallelism
+	 * is set, a thread pool is created for the encoding, and shut down when the encoding is done. So all threads
+	 * used by the encoding are either owned by the caller or by the encoding.
+	 * 
+	 * @param encoding the encoding
+	 * @return the result of the encoding
+	 */
+	<T> T runEncoding(Supplier<T> encoding) {
+		if(firstPng.encodingExecutor!=null) {
+			return encoding.get();
+		}
+		ExecutorService executorService=null;
+		Executor executor=config.getExecutor();
+		if(executor==null && (config.getParallelism()>1 || config.getDeflateParallelism()>1)) {
+			executorService=Executors.newFixedThreadPool(Math.max(config.getParallelism(),config.getDeflateParallelism()));
+			executor=executorService;
+		}
+		firstPng.encodingExecutor=executor;
+		try {
+			return encoding.get();
+		}finally {
+			firstPng.encodingExecutor=null;
+			if(executorService!=null) {
+				executorService.shutdownNow();
 			}
 		}
+	}
 
-		int index_IEND;
-		for(index_IEND=0;index_IEND<apngChunklist.size();index_IEND++) {
-			if(apngChunklist.get(index_IEND) instanceof Chunk_IEND) {
-				break;
-			}
+	/**
+	 * @return the executor of the running encoding, to compress the blocks of an image, or <code>null</code> to
+	 * compress in the calling thread
+	 */
+	Executor getEncodingExecutor() {
+		return firstPng.encodingExecutor;
+	}
+
+	/**
+	 * @return the executor of the running encoding, to encode the images and the candidates of an image, or
+	 * <code>null</code> if neither a parallelism nor an executor is set
+	 */
+	Executor getFrameExecutor() {
+		if(config.getExecutor()==null && config.getParallelism()<2) {
+			return null;
 		}
+		return firstPng.encodingExecutor;
+	}
 
+	/**
+	 * Creates the chunklist of the APNG.
+	 * <br>If an executor is given, the imagedata of all added Png objects is processed concurrently, the chunks are
+	 * put together in order.
+	 * 
+	 * @param progressCallback
+	 * @param executor the executor to process the imagedata, or <code>null</code> to process in the calling thread
+	 * @return the chunklist of the APNG
+	 */
+	private ArrayList<Chunk> createApngChunklist(ProgressCallback progressCallback,Executor executor) {
+		ArrayList<ForkedTask<Void>> imageDataProcessing=null;
+		if(config.isDisposeOpOptimizationEnabled() && DisposeOpOptimizer.isSupported(this)) {
+			new DisposeOpOptimizer(this,executor).optimize(progressCallback);
+		}else if(executor!=null) {
+			imageDataProcessing=new ArrayList<ForkedTask<Void>>(listPng.size());
+			for(int i=0;i<listPng.size();i++) {
+				final Png png=listPng.get(i);
+				imageDataProcessing.add(ForkedTask.fork(() -> {
+					png.processImageData();
+					return null;
+				},executor));
+			}
+		}
+		notifyEncodeListener();
+		ArrayList<Chunk> frameChunklist=new ArrayList<Chunk>(listPng.size()*2);
+		int fcTL_sequenceNumber=1;
+		int numberOfFrames=1;
 		for(int i=0;i<listPng.size();i++) {
 			if(progressCallback!=null) {
 				progressCallback.setProgressStep(i+2);
 			}
+			checkCancelled();
 			Png png=listPng.get(i);
-			ArrayList<Chunk_IDAT> arraylistIdatChunks=png.getAllIdatChunks();
-			chunk_fcTL=new Chunk_fcTL(++fcTL_sequenceNumber,png.getWidth(),png.getHeight(),png.offsetX,png.offsetY,png.getDelay(),1000,ApngDisposeOperation.NONE,ApngBlendOperation.OVER);
-			apngChunklist.add(index_IEND++, chunk_fcTL);
+			if(imageDataProcessing!=null) {
+				imageDataProcessing.get(i).join();
+			}
+			fcTL_sequenceNumber=png.addFrameChunks(frameChunklist,fcTL_sequenceNumber);
+			png.notifyEncodeListener();
 			if(i>0) {
 				png.getPreviousPng().getImageData().reset();
 			}
-			for(int x=0;x<arraylistIdatChunks.size();x++) {
-				Chunk_IDAT chunk_IDAT=arraylistIdatChunks.get(x);
-				Chunk chunk_fdAT=new Chunk_fdAT(++fcTL_sequenceNumber,chunk_IDAT);
-				apngChunklist.add(index_IEND++, chunk_fdAT);
-			}
+			numberOfFrames+=png.getNumberOfFrames();
 		}
+
+		//header, acTL, the first frame, the frames of all added images, IEND
+		int index_IDAT=findIndexOfIdatChunk();
+		int index_IEND=chunklist.size()-1;
+		while(!(chunklist.get(index_IEND) instanceof Chunk_IEND)) {
+			index_IEND--;
+		}
+		ArrayList<Chunk> apngChunklist=new ArrayList<Chunk>(chunklist.size()+2+frameChunklist.size());
+		apngChunklist.addAll(chunklist.subList(0,index_IDAT));
+		apngChunklist.add(new Chunk_acTL(numberOfFrames,0));
+		apngChunklist.add(new Chunk_fcTL(0,getWidth(),getHeight(),0,0,delay,1000,disposeOperation,ApngBlendOperation.SOURCE));
+		apngChunklist.addAll(chunklist.subList(index_IDAT,index_IEND));
+		apngChunklist.addAll(frameChunklist);
+		apngChunklist.addAll(chunklist.subList(index_IEND,chunklist.size()));
 		return apngChunklist;
 	}
 
+	/**
+	 * Returns all chunks of this PNG, processing the imagedata if not done yet.
+	 * 
+	 * @return all chunks of this PNG
+	 */
+	ArrayList<Chunk> getChunklist(){
+		processImageData();
+		return chunklist;
+	}
+
 	private ArrayList<Chunk_IDAT> getAllIdatChunks(){
 		processImageData();
-		ArrayList<Chunk_IDAT> arraylistIdatChunks=new ArrayList<Chunk_IDAT>();
-		for(int i=0;i<chunklist.size();i++) {
-			if(chunklist.get(i) instanceof Chunk_IDAT) {
-				arraylistIdatChunks.add((Chunk_IDAT)chunklist.get(i));
+		if(idatChunks==null) {
+			ArrayList<Chunk_IDAT> arraylistIdatChunks=new ArrayList<Chunk_IDAT>();
+			for(int i=0;i<chunklist.size();i++) {
+				if(chunklist.get(i) instanceof Chunk_IDAT) {
+					arraylistIdatChunks.add((Chunk_IDAT)chunklist.get(i));
+				}
 			}
+			idatChunks=arraylistIdatChunks;
 		}
-		return arraylistIdatChunks;
+		return idatChunks;
 	}
 
 	public int getWidth() {
@@ -439,12 +846,139 @@ public class Png {
 		return false;
 	}
 
+	/**
+	 * Sets the chunks of this PNG, encoded compared to a reference.
+	 * 
+	 * @param encodedFrame the encoded image, possibly with sub-frames
+	 */
+	void setEncodedFrame(EncodedFrame encodedFrame) {
+		flagImageDataProcessed=true;
+		ArrayList<Chunk> chunklist=encodedFrame.getChunklist();
+		for(int i=0;i<chunklist.size();i++) {
+			addChunk(chunklist.get(i));
+		}
+		setOffsets(encodedFrame.getOffsetX(),encodedFrame.getOffsetY());
+		this.subFrames=encodedFrame.getSubFrames();
+		EncodeStatistics[] encodings=new EncodeStatistics[getNumberOfFrames()];
+		encodings[0]=encodedFrame.getEncodeStatistics();
+		for(int i=1;i<encodings.length;i++) {
+			encodings[i]=subFrames.get(i-1).getEncodeStatistics();
+		}
+		encodeStatistics.setResult(encodings);
+	}
+
+	/** @return the timings and sizes of all encodings of this image */
+	EncodeStatistics getEncodeStatistics() {
+		return encodeStatistics;
+	}
+
+	/**
+	 * Informs the EncodeListener of the settings about the timings and sizes of this image, if a listener is set.
+	 */
+	void notifyEncodeListener() {
+		EncodeListener encodeListener=config.getEncodeListener();
+		if(encodeListener==null) {
+			return;
+		}
+		ArrayList<Chunk_IDAT> arraylistIdatChunks=getAllIdatChunks();
+		long compressedBytes=0;
+		for(int i=0;i<arraylistIdatChunks.size();i++) {
+			compressedBytes+=arraylistIdatChunks.get(i).getChunkLength()-Chunk.DATAOFFSET-Chunk.CRC_SIZEINBYTES;
+		}
+		Rectangle area=new Rectangle(offsetX,offsetY,getWidth(),getHeight());
+		for(int i=0;subFrames!=null && i<subFrames.size();i++) {
+			EncodedFrame subFrame=subFrames.get(i);
+			area.add(new Rectangle(subFrame.getOffsetX(),subFrame.getOffsetY(),subFrame.getWidth(),subFrame.getHeight()));
+			ArrayList<Chunk> chunklistSubFrame=subFrame.getChunklist();
+			for(int k=0;k<chunklistSubFrame.size();k++) {
+				if(chunklistSubFrame.get(k) instanceof Chunk_IDAT) {
+					compressedBytes+=chunklistSubFrame.get(k).getChunkLength()-Chunk.DATAOFFSET-Chunk.CRC_SIZEINBYTES;
+				}
+			}
+		}
+		encodeListener.frameEncoded(new FrameMetrics(frameIndex,imageData.getDecodeNanos(),encodeStatistics,getNumberOfFrames(),compressedBytes,area));
+	}
+
+	/** @return the number of APNG frames of this image, more than one if it is split into sub-frames */
+	int getNumberOfFrames() {
+		processImageData();
+		return subFrames==null?1:subFrames.size()+1;
+	}
+
+	/**
+	 * The area of the last frame of this image, which is the area changed by the dispose operation.
+	 * 
+	 * @return the area of the last sub-frame, or of this image if it has no sub-frames
+	 */
+	Rectangle getLastFrameArea() {
+		if(subFrames!=null) {
+			EncodedFrame subFrame=subFrames.get(subFrames.size()-1);
+			return new Rectangle(subFrame.getOffsetX(),subFrame.getOffsetY(),subFrame.getWidth(),subFrame.getHeight());
+		}
+		return new Rectangle(offsetX,offsetY,getWidth(),getHeight());
+	}
+
+	/**
+	 * Adds the frame control and frame data chunks of this image to the given chunklist of an APNG.
+	 * <br>If the image is split into sub-frames, all sub-frames but the last are shown without delay, and are not
+	 * disposed.
+	 * 
+	 * @param frameChunklist the chunks of the APNG
+	 * @param sequenceNumber the sequence number of the first chunk
+	 * @return the sequence number of the chunk following the added chunks
+	 */
+	int addFrameChunks(ArrayList<Chunk> frameChunklist,int sequenceNumber) {
+		ArrayList<Chunk_IDAT> arraylistIdatChunks=getAllIdatChunks();
+		boolean hasSubFrames=subFrames!=null;
+		frameChunklist.add(new Chunk_fcTL(sequenceNumber++,getWidth(),getHeight(),offsetX,offsetY,hasSubFrames?0:delay,1000,hasSubFrames?ApngDisposeOperation.NONE:disposeOperation,blendOperation));
+		for(int i=0;i<arraylistIdatChunks.size();i++) {
+			frameChunklist.add(new Chunk_fdAT(sequenceNumber++,arraylistIdatChunks.get(i)));
+		}
+		for(int i=0;hasSubFrames && i<subFrames.size();i++) {
+			EncodedFrame subFrame=subFrames.get(i);
+			boolean isLast=i==subFrames.size()-1;
+			frameChunklist.add(new Chunk_fcTL(sequenceNumber++,subFrame.getWidth(),subFrame.getHeight(),subFrame.getOffsetX(),subFrame.getOffsetY(),isLast?delay:0,1000,isLast?disposeOperation:ApngDisposeOperation.NONE,ApngBlendOperation.OVER));
+			ArrayList<Chunk> chunklistSubFrame=subFrame.getChunklist();
+			for(int k=0;k<chunklistSubFrame.size();k++) {
+				if(chunklistSubFrame.get(k) instanceof Chunk_IDAT) {
+					frameChunklist.add(new Chunk_fdAT(sequenceNumber++,(Chunk_IDAT)chunklistSubFrame.get(k)));
+				}
+			}
+		}
+		return sequenceNumber;
+	}
+
+	/**
+	 * @param disposeOperation how the output buffer is changed after this frame has been shown
+	 */
+	void setDisposeOperation(ApngDisposeOperation disposeOperation) {
+		this.disposeOperation=disposeOperation;
+	}
+
+	ApngDisposeOperation getDisposeOperation() {
+		return disposeOperation;
+	}
+
+	/**
+	 * @param blendOperation how this frame is rendered to the output buffer
+	 */
+	void setBlendOperation(ApngBlendOperation blendOperation) {
+		this.blendOperation=blendOperation;
+	}
+
+	/** @return the Png objects added to this Png object */
+	ArrayList<Png> getAddedPngs() {
+		return listPng;
+	}
+
 	void addChunk(Chunk chunk) {
 		logger.trace("adding chunk: {}",chunk);
 		if(chunklist==null) {
 			chunklist=new ArrayList<Chunk>();
+			idatChunks=null;
 		}
 		chunklist.add(chunk);
+		idatChunks=null;
 		if(chunk instanceof Chunk_IHDR) {
 			chunk_IHDR=(Chunk_IHDR)chunk;
 		}
@@ -554,8 +1088,8 @@ public class Png {
 		}
 	}
 
-	ApngBuilder getBuilder() {
-		return builder;
+	ApngConfig getConfig() {
+		return config;
 	}
 	
 	@Override
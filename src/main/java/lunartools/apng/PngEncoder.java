@@ -1,36 +1,77 @@
 package lunartools.apng;
 
-import java.io.ByteArrayOutputStream;
-
 /**
  * Creates a bytearray of uncompressed PNG scanlines from a bytearray of pixeldata.
- * 
+ * <br>The buffers for the filtered scanlines are reused when encoding several images with the same encoder.
+ *
  * @author Thomas Mattel
  */
 public class PngEncoder {
+	private FilterScorer filterScore;
 	private byte[] buffer0;
 	private byte[] buffer1;
 	private byte[] buffer2;
 	private byte[] buffer3;
 	private byte[] buffer4;
+	private byte[] bufferPreviousLineOfFirstLine;
+	private int score0;
+	private int score1;
+	private int score2;
+	private int score3;
+	private int score4;
+	private final int[] filterTypes=new int[5];
+
+	/**
+	 * Creates an encoder that chooses the filter type of each scanline by deflating it.
+	 */
+	public PngEncoder() {
+		this(new FilterScore4());
+	}
+
+	/**
+	 * Creates an encoder that chooses the filter type of each scanline using the given scorer.
+	 *
+	 * @param filterScore the scorer to compare the filter types
+	 */
+	public PngEncoder(FilterScorer filterScore) {
+		if(filterScore==null) {
+			throw new NullPointerException("filterScore");
+		}
+		this.filterScore=filterScore;
+	}
 
-	private byte[] encodePngType0(byte[] data, int width, int height, int bytesPerPixel) throws Exception {
-		ByteArrayOutputStream baos=new ByteArrayOutputStream();
+	/**
+	 * Creates PNG scanlines of filter type 0 (None) from an bytearray of pixeldata.
+	 * <br>The PNG specification recommends filter type 0 for indexed colour images, however, depending on the
+	 * image, adaptive filtering might produce smaller data.
+	 * 
+	 * @param data
+	 * @param width
+	 * @param height
+	 * @param bytesPerPixel
+	 * @return
+	 */
+	byte[] encodePngFilterTypeNone(byte[] data, int width, int height, int bytesPerPixel) {
+		Object jfrEvent=JfrEvents.beginImageFiltered();
 		final int imageBytesInLine=width*bytesPerPixel;
-		buffer0=new byte[imageBytesInLine];
+		byte[] encoded=new byte[(imageBytesInLine+1)*height];
 		int offset=0;
+		int index=0;
+		resetFilterTypes();
+		filterTypes[0]=height;
 		for(int y=0;y<height;y++) {
-			System.arraycopy(data, offset, buffer0, 0, imageBytesInLine);
-			baos.write(0);
-			baos.write(buffer0);
+			encoded[index++]=0;
+			System.arraycopy(data, offset, encoded, index, imageBytesInLine);
+			index+=imageBytesInLine;
 			offset+=imageBytesInLine;
 		}
-		return baos.toByteArray();
+		JfrEvents.commitImageFiltered(jfrEvent,width,height,data.length,encoded.length);
+		return encoded;
 	}
 
 	/**
-	 * Applies PNG filter to an bytearray of pixeldata
-	 * 
+	 * Applies PNG filter to an bytearray of pixeldata, choosing the filter type of each scanline adaptively.
+	 *
 	 * @param data
 	 * @param width
 	 * @param height
@@ -39,162 +80,170 @@ public class PngEncoder {
 	 * @throws Exception
 	 */
 	byte[] encodePng(byte[] data, int width, int height, int bytesPerPixel) throws Exception {
-		if(bytesPerPixel==1) {
-			return encodePngType0(data,width,height,bytesPerPixel);
-		}
-		ByteArrayOutputStream baos=new ByteArrayOutputStream();
-		FilterScore4 filterScore=new FilterScore4();
-		byte[] baLine;
-		int typeLine;
-		int scoreLine;
-		int scoreNext;
-		int imageBytesInLine=width*bytesPerPixel;
-		buffer0=new byte[imageBytesInLine];
-		buffer1=new byte[imageBytesInLine];
-		buffer2=new byte[imageBytesInLine];
-		buffer3=new byte[imageBytesInLine];
-		buffer4=new byte[imageBytesInLine];
-		int offset=0;
-		for(int y=0;y<height;y++) {
-			encodeType4(data,offset,imageBytesInLine,y,bytesPerPixel);
-			baLine=buffer4;
-			typeLine=4;
-			scoreLine=filterScore.calcScore(baLine);
-
-			encodeType3(data,offset,imageBytesInLine,y,bytesPerPixel);
-			scoreNext=filterScore.calcScore(buffer3);
-			if(scoreNext<scoreLine) {
-				scoreLine=scoreNext;
-				baLine=buffer3;
-				typeLine=3;
-			}
+		Object jfrEvent=JfrEvents.beginImageFiltered();
+		final int imageBytesInLine=width*bytesPerPixel;
+		byte[] encoded=new byte[(imageBytesInLine+1)*height];
+		allocateBuffers(imageBytesInLine);
+		filterScore.reset();
+		try {
+			resetFilterTypes();
+			//the fused filter pass sums the absolute values itself, unless a subclass scores the scanlines differently
+			final boolean isScoreCalculatedByFilter=filterScore.getClass()==FilterScoreAbsoluteSum.class;
+			byte[] baLine;
+			int typeLine;
+			int scoreLine;
+			int scoreNext;
+			int offset=0;
+			int index=0;
+			for(int y=0;y<height;y++) {
+				if(y==0) {
+					filterScanline(data,offset,bufferPreviousLineOfFirstLine,0,imageBytesInLine,bytesPerPixel);
+				}else {
+					filterScanline(data,offset,data,offset-imageBytesInLine,imageBytesInLine,bytesPerPixel);
+				}
 
-			encodeType2(data,offset,imageBytesInLine,y,bytesPerPixel,width);
-			scoreNext=filterScore.calcScore(buffer2);
-			if(scoreNext<scoreLine) {
-				scoreLine=scoreNext;
-				baLine=buffer2;
-				typeLine=2;
-			}
+				baLine=buffer4;
+				typeLine=4;
+				scoreLine=isScoreCalculatedByFilter?score4:filterScore.calcScore(buffer4,imageBytesInLine);
 
-			encodeType1(data,offset,imageBytesInLine,bytesPerPixel);
-			scoreNext=filterScore.calcScore(buffer1);
-			if(scoreNext<scoreLine) {
-				scoreLine=scoreNext;
-				baLine=buffer1;
-				typeLine=1;
-			}
+				scoreNext=isScoreCalculatedByFilter?score3:filterScore.calcScore(buffer3,imageBytesInLine);
+				if(scoreNext<scoreLine) {
+					scoreLine=scoreNext;
+					baLine=buffer3;
+					typeLine=3;
+				}
 
-			encodeType0(data,offset,imageBytesInLine);
-			scoreNext=filterScore.calcScore(buffer0);
-			if(scoreNext<scoreLine) {
-				scoreLine=scoreNext;
-				baLine=buffer0;
-				typeLine=0;
-			}
+				scoreNext=isScoreCalculatedByFilter?score2:filterScore.calcScore(buffer2,imageBytesInLine);
+				if(scoreNext<scoreLine) {
+					scoreLine=scoreNext;
+					baLine=buffer2;
+					typeLine=2;
+				}
 
-			baos.write(typeLine);
-			baos.write(baLine);
-			filterScore.addLine(baLine);
-			offset+=imageBytesInLine;
+				scoreNext=isScoreCalculatedByFilter?score1:filterScore.calcScore(buffer1,imageBytesInLine);
+				if(scoreNext<scoreLine) {
+					scoreLine=scoreNext;
+					baLine=buffer1;
+					typeLine=1;
+				}
+
+				scoreNext=isScoreCalculatedByFilter?score0:filterScore.calcScore(buffer0,imageBytesInLine);
+				if(scoreNext<scoreLine) {
+					scoreLine=scoreNext;
+					baLine=buffer0;
+					typeLine=0;
+				}
+
+				encoded[index++]=(byte)typeLine;
+				filterTypes[typeLine]++;
+				System.arraycopy(baLine, 0, encoded, index, imageBytesInLine);
+				index+=imageBytesInLine;
+				filterScore.addLine(baLine,imageBytesInLine);
+				offset+=imageBytesInLine;
+			}
+		}finally {
+			filterScore.end();
 		}
-		return baos.toByteArray();
+		JfrEvents.commitImageFiltered(jfrEvent,width,height,data.length,encoded.length);
+		return encoded;
 	}
 
-	private void encodeType0(byte[] data, int offset, int length) {
-		System.arraycopy(data, offset, buffer0, 0, length);
+	/**
+	 * Returns the number of scanlines of each filter type of the last encoded image.
+	 *
+	 * @return the number of scanlines, indexed by filter type, not to be modified
+	 */
+	int[] getFilterTypes() {
+		return filterTypes;
 	}
 
-	private void encodeType1(byte[] data, int offset, int length, int bytesPerPixel) {
-		int index=0;
-		int i;
-		for(i=offset;i<offset+bytesPerPixel;i++) {
-			buffer1[index++]=(byte)data[i];
-		}
-		for(;i<offset+length;i++) {
-			buffer1[index++]=(byte)(data[i]-data[i-bytesPerPixel]);
+	private void resetFilterTypes() {
+		for(int i=0;i<filterTypes.length;i++) {
+			filterTypes[i]=0;
 		}
 	}
 
-	private void encodeType2(byte[] data, int offset, int length, int y,int bytesPerPixel, int width) {
-		int index=0;
-		if(y==0) {
-			for(int i=offset;i<offset+length;i++) {
-				buffer2[index++]=data[i];
-			}
-		}else {
-			final int bytesPerLine=width*bytesPerPixel;
-			for(int i=offset;i<offset+length;i++) {
-				buffer2[index++]=(byte)(data[i]-data[i-bytesPerLine]);
-			}
+	/**
+	 * Allocates the scanline buffers, if the existing buffers are too small.
+	 *
+	 * @param imageBytesInLine
+	 */
+	private void allocateBuffers(int imageBytesInLine) {
+		if(buffer0!=null && buffer0.length>=imageBytesInLine) {
+			return;
 		}
+		buffer0=new byte[imageBytesInLine];
+		buffer1=new byte[imageBytesInLine];
+		buffer2=new byte[imageBytesInLine];
+		buffer3=new byte[imageBytesInLine];
+		buffer4=new byte[imageBytesInLine];
+		bufferPreviousLineOfFirstLine=new byte[imageBytesInLine];
 	}
 
-	private void encodeType3(byte[] data, int offset, int length, int y,int bytesPerPixel) {
-		int a=0;
-		int b=0;
-		int index=0;
-		int x;
-		if(y==0) {
-			for(x=offset;x<offset+bytesPerPixel;x++) {
-				buffer3[index++]=(data[x]);
-			}
-			for(;x<offset+length;x++) {
-				a=data[x-bytesPerPixel]&0xff;
-				buffer3[index++]=(byte)(data[x]-(a>>1));
-			}
-		}else {
-			for(x=offset;x<offset+bytesPerPixel;x++) {
-				b=data[x-length]&0xff;
-				buffer3[index++]=(byte)(data[x]-(b>>1));
-			}
-			for(;x<offset+length;x++) {
-				a=data[x-bytesPerPixel]&0xff;
-				b=data[x-length]&0xff;
-				buffer3[index++]=(byte)(data[x]-((a+b)>>1));
+	/**
+	 * Applies all five filter types to a scanline in a single pass, and calculates the sum of absolute values of
+	 * each filtered scanline.
+	 * <br>For the first scanline, the previous scanline is a line of zero bytes, as defined by the PNG specification.
+	 *
+	 * @param data the pixeldata
+	 * @param offset offset to the scanline within the pixeldata
+	 * @param previous the array containing the previous scanline
+	 * @param offsetPrevious offset to the previous scanline
+	 * @param length the number of bytes of the scanline
+	 * @param bytesPerPixel
+	 */
+	private void filterScanline(byte[] data, int offset, byte[] previous, int offsetPrevious, int length, int bytesPerPixel) {
+		int sum0=0;
+		int sum1=0;
+		int sum2=0;
+		int sum3=0;
+		int sum4=0;
+		int filtered;
+		for(int i=0;i<length;i++) {
+			int x=data[offset+i]&0xff;
+			int b=previous[offsetPrevious+i]&0xff;
+			int a;
+			int c;
+			if(i<bytesPerPixel) {
+				a=0;
+				c=0;
+			}else {
+				a=data[offset+i-bytesPerPixel]&0xff;
+				c=previous[offsetPrevious+i-bytesPerPixel]&0xff;
 			}
-		}
-	}
 
-	private void encodeType4(byte[] data, int offset, int length, int y,int bytesPerPixel) {
-		int a=0;
-		int x;
-		final int lineOffset=y*length;
-		if(y==0) {
-			for(int i=0;i<length;i++) {
-				x=data[lineOffset+i]&0xff;
-
-				if(i>=bytesPerPixel) {
-					a=data[offset+i-bytesPerPixel]&0xff;
-					buffer4[i]=(byte)(x-a);
-				}else {
-					buffer4[i]=(byte)x;
-				}
-			}
-		}else {
-			int b=0;
-			int c=0;
-			for(int i=0;i<length;i++) {
-				x=data[lineOffset+i]&0xff;
-				b=data[offset+i-length]&0xff;
-				
-				if(i<bytesPerPixel) {
-					buffer4[i]=(byte)(x-b);
-				}else {
-					a=data[offset+i-bytesPerPixel]&0xff;
-					c=data[offset+i-bytesPerPixel-length]&0xff;
-					int pa=Math.abs(b-c);
-					int pb=Math.abs(a-c);
-					int pc=Math.abs(a+b-c-c);
-					if(pa<=pb && pa<=pc) {
-						buffer4[i]=(byte)(x-a);
-					}else if(pb<=pc) {
-						buffer4[i]=(byte)(x-b);
-					}else {
-						buffer4[i]=(byte)(x-c);
-					}
-				}
+			buffer0[i]=(byte)x;
+			sum0+=x<128?x:256-x;
+
+			filtered=(x-a)&0xff;
+			buffer1[i]=(byte)filtered;
+			sum1+=filtered<128?filtered:256-filtered;
+
+			filtered=(x-b)&0xff;
+			buffer2[i]=(byte)filtered;
+			sum2+=filtered<128?filtered:256-filtered;
+
+			filtered=(x-((a+b)>>1))&0xff;
+			buffer3[i]=(byte)filtered;
+			sum3+=filtered<128?filtered:256-filtered;
+
+			int pa=Math.abs(b-c);
+			int pb=Math.abs(a-c);
+			int pc=Math.abs(a+b-c-c);
+			if(pa<=pb && pa<=pc) {
+				filtered=(x-a)&0xff;
+			}else if(pb<=pc) {
+				filtered=(x-b)&0xff;
+			}else {
+				filtered=(x-c)&0xff;
 			}
+			buffer4[i]=(byte)filtered;
+			sum4+=filtered<128?filtered:256-filtered;
 		}
+		score0=sum0;
+		score1=sum1;
+		score2=sum2;
+		score3=sum3;
+		score4=sum4;
 	}
 }
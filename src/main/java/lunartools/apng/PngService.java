@@ -1,18 +1,21 @@
 package lunartools.apng;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
 import java.util.zip.Deflater;
-import java.util.zip.DeflaterOutputStream;
 
 import javax.imageio.ImageIO;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import lunartools.apng.chunks.Chunk;
 import lunartools.apng.chunks.Chunk_IDAT;
 import lunartools.apng.chunks.Chunk_IEND;
 import lunartools.apng.chunks.Chunk_IHDR;
@@ -22,6 +25,15 @@ import lunartools.apng.chunks.Chunk_tRNS;
 
 public class PngService {
 	private static Logger logger = LoggerFactory.getLogger(PngService.class);
+	/** The minimum numbers of transparent pixel tried by the transparent pixel optimization, 0 is cropping only */
+	private static final int[] MINIMUM_NUMBERS_OF_TRANSPARENT_PIXEL=new int[] {0,1,4,16};
+	/** The estimated cost of the chunks of a sub-frame, in pixel */
+	private static final int SUBFRAME_OVERHEAD_PIXEL=64;
+
+	/** @return the maximum number of candidates encoded by the transparent pixel optimization */
+	static int getNumberOfTransparentPixelCandidates() {
+		return MINIMUM_NUMBERS_OF_TRANSPARENT_PIXEL.length+1;
+	}
 
 	static void createPngViaImageIO(Png png) {
 		BufferedImage bufferedImage=png.getImageData().getBufferedImage();
@@ -36,30 +48,152 @@ public class PngService {
 	}
 
 	static void createPngViaPngEncoder(Png png) {
+		if(png.getPreviousPng()==null) {
+			EncodeStatistics encodeStatistics=new EncodeStatistics();
+			ArrayList<Chunk> chunklist=createChunklistViaPngEncoder(png,null,encodeStatistics);
+			for(int i=0;i<chunklist.size();i++) {
+				png.addChunk(chunklist.get(i));
+			}
+			png.getEncodeStatistics().addEncoding(encodeStatistics);
+			png.getEncodeStatistics().setResult(encodeStatistics);
+		}else {
+			png.setEncodedFrame(encodeFrame(png,png.getPreviousPng().getImageData().getRgbInts()));
+		}
+	}
+
+	/**
+	 * Encodes the image of the given png compared to the given reference, without changing the png.
+	 * <br>If the transparent pixel optimization is enabled, the image is encoded with several minimum numbers of
+	 * transparent pixel, including cropping only, and the smallest result is returned. The candidates are encoded
+	 * concurrently on the executor of the encoding, if a parallelism or an executor is set.
+	 * <br>If sub-frames are enabled, and the changed pixel are in separate areas, each area is encoded as a sub-frame,
+	 * if this is smaller.
+	 * 
+	 * @param png
+	 * @param reference the content of the output buffer before the image is rendered, as RGB int array
+	 * @return the encoded image
+	 */
+	static EncodedFrame encodeFrame(Png png,int[] reference) {
+		EncodedFrame encodedFrame=encodeFrameWithTransparentPixel(png,reference);
+		int maximumNumberOfSubFrames=png.getConfig().getMaximumNumberOfSubFrames();
+		if(maximumNumberOfSubFrames>1) {
+			EncodedFrame encodedFrameSubFrames=encodeSubFrames(png,reference,encodedFrame,maximumNumberOfSubFrames);
+			if(encodedFrameSubFrames!=null && encodedFrameSubFrames.getSize()<encodedFrame.getSize()) {
+				logger.trace("using {} sub-frames, size: {}",encodedFrameSubFrames.getSubFrames().size()+1,encodedFrameSubFrames.getSize());
+				return encodedFrameSubFrames;
+			}
+		}
+		return encodedFrame;
+	}
+
+	/**
+	 * Encodes each separate area of changed pixel as sub-frame.
+	 * 
+	 * @param png
+	 * @param reference the content of the output buffer before the image is rendered, as RGB int array
+	 * @param encodedFrame the image encoded as a single frame
+	 * @param maximumNumberOfSubFrames
+	 * @return the first sub-frame, containing the other sub-frames, or <code>null</code> if the sub-frames are not
+	 * expected to be smaller than the single frame
+	 */
+	private static EncodedFrame encodeSubFrames(Png png,int[] reference,EncodedFrame encodedFrame,int maximumNumberOfSubFrames) {
+		ImageData imageData=png.getImageData();
+		long timeStart=System.nanoTime();
+		ArrayList<Rectangle> areas=DirtyRegions.findAreas(imageData.getRgbInts(),reference,imageData.getWidth(),imageData.getHeight(),maximumNumberOfSubFrames);
+		png.getEncodeStatistics().addOptimizeNanos(System.nanoTime()-timeStart);
+		if(areas.size()<2) {
+			return null;
+		}
+		long numberOfPixel=0;
+		for(int i=0;i<areas.size();i++) {
+			numberOfPixel+=(long)areas.get(i).width*areas.get(i).height+SUBFRAME_OVERHEAD_PIXEL;
+		}
+		if(numberOfPixel>=(long)encodedFrame.getWidth()*encodedFrame.getHeight()) {
+			return null;
+		}
+		int minimumNumberOfTransparentPixel=encodedFrame.getMinimumNumberOfTransparentPixel();
+		EncodedFrame encodedFrameSubFrames=new EncodedFrame(png,reference,minimumNumberOfTransparentPixel,areas.get(0));
+		for(int i=1;i<areas.size();i++) {
+			encodedFrameSubFrames.addSubFrame(new EncodedFrame(png,reference,minimumNumberOfTransparentPixel,areas.get(i)));
+		}
+		return encodedFrameSubFrames;
+	}
+
+	private static EncodedFrame encodeFrameWithTransparentPixel(Png png,int[] reference) {
+		ApngConfig config=png.getConfig();
+		int minimumNumberOfTransparentPixel=config.getMinimumNumberOfTransparentPixel();
+		if(!config.isTransparentPixelOptimizationEnabled()) {
+			return new EncodedFrame(png,reference,minimumNumberOfTransparentPixel);
+		}
+		ArrayList<Integer> candidates=new ArrayList<Integer>();
+		candidates.add(minimumNumberOfTransparentPixel);
+		for(int i=0;i<MINIMUM_NUMBERS_OF_TRANSPARENT_PIXEL.length;i++) {
+			if(!candidates.contains(MINIMUM_NUMBERS_OF_TRANSPARENT_PIXEL[i])) {
+				candidates.add(MINIMUM_NUMBERS_OF_TRANSPARENT_PIXEL[i]);
+			}
+		}
+		ArrayList<EncodedFrame> encodedFrames=new ArrayList<EncodedFrame>(candidates.size());
+		Executor executor=png.getFrameExecutor();
+		if(executor!=null) {
+			//candidates not started by the executor, which might be busy with the frames, are encoded by this thread
+			ArrayList<ForkedTask<EncodedFrame>> tasks=new ArrayList<ForkedTask<EncodedFrame>>(candidates.size());
+			for(int i=1;i<candidates.size();i++) {
+				final int minimum=candidates.get(i);
+				tasks.add(ForkedTask.fork(() -> new EncodedFrame(png,reference,minimum),executor));
+			}
+			try {
+				encodedFrames.add(new EncodedFrame(png,reference,candidates.get(0)));
+			}finally {
+				for(int i=0;i<tasks.size();i++) {
+					encodedFrames.add(tasks.get(i).join());
+				}
+			}
+		}else {
+			for(int i=0;i<candidates.size();i++) {
+				encodedFrames.add(new EncodedFrame(png,reference,candidates.get(i)));
+			}
+		}
+		EncodedFrame encodedFrameBest=encodedFrames.get(0);
+		for(int i=1;i<encodedFrames.size();i++) {
+			if(encodedFrames.get(i).getSize()<encodedFrameBest.getSize()) {
+				encodedFrameBest=encodedFrames.get(i);
+			}
+		}
+		logger.trace("minimum number of transparent pixel: {}, size: {}",encodedFrameBest.getMinimumNumberOfTransparentPixel(),encodedFrameBest.getSize());
+		return encodedFrameBest;
+	}
+
+	/**
+	 * Encodes the image of the given png, without changing the png.
+	 * 
+	 * @param png
+	 * @param imagedataOptimizer the optimized image, or <code>null</code> to encode the complete image
+	 * @param encodeStatistics receives the timings and sizes of this encoding
+	 * @return the chunks of the PNG, from IHDR to IEND
+	 */
+	static ArrayList<Chunk> createChunklistViaPngEncoder(Png png,ImagedataOptimizer imagedataOptimizer,EncodeStatistics encodeStatistics) {
+		png.checkCancelled();
+		ArrayList<Chunk> chunklist=new ArrayList<Chunk>();
+		Object jfrEvent=JfrEvents.beginFrameEncoded();
 		try {
 			ImageData imageData=png.getImageData();
 			AnimData animData=png.getAnimData();
-			int numberOfColours=animData.getNumberOfColours();
 			int bitdepth;
-			ColourType colourtype;
+			ColourType colourtype=animData.getColourType();
 			Chunk_PLTE chunk_PLTE=null;
 			Chunk_tRNS chunk_tRNS=null;
-			int maxPaletteColours=png.getFirstPng().getBuilder().getMinimumNumberOfTransparentPixel()==0?256:255;
-			if(numberOfColours>maxPaletteColours) {
+			if(colourtype==ColourType.TRUECOLOUR) {
 				bitdepth=8;
-				colourtype=ColourType.TRUECOLOUR;
 				ColourRGB unusedColour=animData.getUnusedColour();
 				chunk_tRNS=new Chunk_tRNS(unusedColour.getRed(),unusedColour.getGreen(),unusedColour.getBlue());
-			}else if(animData.isGreyscale()) {
+			}else if(colourtype==ColourType.GREYSCALE) {
 				bitdepth=8;
-				colourtype=ColourType.GREYSCALE;
 				ColourRGB unusedColour=animData.getUnusedColour();
 				chunk_tRNS=new Chunk_tRNS(unusedColour.getColour());
 			}else {
 				bitdepth=8;
-				colourtype=ColourType.INDEXEDCOLOUR;
-				ArrayList<ColourRGB> palette=animData.getPalette();
-				chunk_PLTE=new Chunk_PLTE(palette);
+				Palette palette=animData.getPalette();
+				chunk_PLTE=new Chunk_PLTE(palette.getColours());
 				int[] alphaPalette=new int[palette.size()];
 				for(int i=1;i<alphaPalette.length;i++) {
 					alphaPalette[i]=255;
@@ -70,56 +204,88 @@ public class PngService {
 			byte[] baImageRaw;
 			Chunk_IHDR chunk_IHDR;
 			logger.debug("Creating PNG using PngEncoder");
-			if(png.getPreviousPng()==null) {
+			if(imagedataOptimizer==null) {
 				logger.trace("create primary PNG");
-				PngEncoder pngEncoder=new PngEncoder();
 				int width=imageData.getWidth();
 				int height=imageData.getHeight();
-				baImageRaw=pngEncoder.encodePng(imageData.getImageBytes(), width, height,animData.getBytesPerPixel());
+				baImageRaw=encodePng(png,colourtype,imageData.getImageBytes(),width,height,animData.getBytesPerPixel(),encodeStatistics);
 				chunk_IHDR=new Chunk_IHDR(width, height, bitdepth, colourtype);
 			}else {
 				logger.trace("create secondary PNG");
-				ImagedataOptimizer imagedataOptimizer=new ImagedataOptimizer();
-				imagedataOptimizer.optimizeImage(png);
-				baImageRaw=new PngEncoder().encodePng(imagedataOptimizer.getImagedata(),imagedataOptimizer.getwidth(),imagedataOptimizer.getHeight(),animData.getBytesPerPixel());
+				baImageRaw=encodePng(png,colourtype,imagedataOptimizer.getImagedata(),imagedataOptimizer.getwidth(),imagedataOptimizer.getHeight(),animData.getBytesPerPixel(),encodeStatistics);
 				chunk_IHDR=new Chunk_IHDR(imagedataOptimizer.getwidth(), imagedataOptimizer.getHeight(), bitdepth, colourtype);
-				png.setOffsets(imagedataOptimizer.getOffsetX(),imagedataOptimizer.getOffsetY());
 			}
-			png.addChunk(chunk_IHDR);
+			chunklist.add(chunk_IHDR);
 			if(chunk_PLTE!=null) {
-				png.addChunk(chunk_PLTE);
+				chunklist.add(chunk_PLTE);
 			}
 			if(chunk_tRNS!=null) {
-				png.addChunk(chunk_tRNS);
+				chunklist.add(chunk_tRNS);
 			}
 
-			ByteArrayOutputStream baos=new ByteArrayOutputStream();
-			Deflater deflater=new Deflater(Deflater.BEST_COMPRESSION,false);
-			//			deflater.setStrategy(Deflater.HUFFMAN_ONLY);
-			deflater.setStrategy(Deflater.FILTERED);
-			//			deflater.setStrategy(Deflater.DEFAULT_STRATEGY);
-			//			deflater.setStrategy(Deflater.NO_FLUSH);
-			DeflaterOutputStream deflaterOutputStream=new DeflaterOutputStream(baos,deflater);
-			deflaterOutputStream.write(baImageRaw);
-			deflaterOutputStream.finish();
-			deflaterOutputStream.flush();
-			deflaterOutputStream.close();
-			byte[] imagedataCompressed=baos.toByteArray();
-
-			final int chunkdatasize=png.getBuilder().getImageDataChunkSize();
+			ParallelDeflater deflater=new ParallelDeflater(Deflater.BEST_COMPRESSION,Deflater.FILTERED,png.getConfig().getDeflateParallelism(),png::checkCancelled,png.getEncodingExecutor());
+			long timeStart=System.nanoTime();
+			byte[] imagedataCompressed=deflater.deflate(baImageRaw);
+			encodeStatistics.addDeflateNanos(System.nanoTime()-timeStart);
+
+			final int chunkdatasize=png.getConfig().getImageDataChunkSize();
 			for(int i=0;i<imagedataCompressed.length;i+=chunkdatasize) {
 				int len=i+chunkdatasize;
 				if(len>imagedataCompressed.length) {
 					len=imagedataCompressed.length;
 				}
 				Chunk_IDAT chunk_IDAT=new Chunk_IDAT(Arrays.copyOfRange(imagedataCompressed, i, len));
-				png.addChunk(chunk_IDAT);
+				chunklist.add(chunk_IDAT);
 			}
 			Chunk_IEND chunk_IEND=new Chunk_IEND();
-			png.addChunk(chunk_IEND);
+			chunklist.add(chunk_IEND);
+			JfrEvents.commitFrameEncoded(jfrEvent,png.getFrameIndex(),chunk_IHDR.getWidth(),chunk_IHDR.getHeight(),baImageRaw.length,imagedataCompressed.length);
+			return chunklist;
+		} catch (CancellationException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new RuntimeException("error encoding PNG",e);
 		}
 	}
 
+	/**
+	 * Creates the uncompressed PNG scanlines, filtered adaptively, except for indexed colour images when palette
+	 * filtering is disabled.
+	 * <br>The PngEncoder is taken from the idle encoders of the animation, so its buffers are reused across frames
+	 * and candidates.
+	 */
+	private static byte[] encodePng(Png png,ColourType colourtype,byte[] data,int width,int height,int bytesPerPixel,EncodeStatistics encodeStatistics) throws Exception {
+		long timeStart=System.nanoTime();
+		PngEncoder pngEncoder=png.getAnimData().acquirePngEncoder();
+		if(pngEncoder==null) {
+			pngEncoder=new PngEncoder(createFilterScorer(png.getConfig()));
+		}
+		try {
+			byte[] encoded;
+			if(colourtype==ColourType.INDEXEDCOLOUR && !png.getConfig().isPaletteFilteringEnabled()) {
+				encoded=pngEncoder.encodePngFilterTypeNone(data,width,height,bytesPerPixel);
+			}else {
+				encoded=pngEncoder.encodePng(data,width,height,bytesPerPixel);
+			}
+			encodeStatistics.addFilterNanos(System.nanoTime()-timeStart);
+			encodeStatistics.setFilteredImage(encoded.length,pngEncoder.getFilterTypes());
+			return encoded;
+		}finally {
+			png.getAnimData().releasePngEncoder(pngEncoder);
+		}
+	}
+
+	private static FilterScorer createFilterScorer(ApngConfig config) {
+		switch(config.getFilterScoreAlgorithm()) {
+		case DEFLATE:
+			return new FilterScore4();
+		case ENTROPY:
+			return new FilterScoreEntropy();
+		case ABSOLUTE_SUM:
+			return new FilterScoreAbsoluteSum();
+		default:
+			throw new RuntimeException("filter score algorithm not supported: "+config.getFilterScoreAlgorithm());
+		}
+	}
+
 }
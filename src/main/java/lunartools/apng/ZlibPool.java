@@ -0,0 +1,165 @@
+package lunartools.apng;
+
+import java.util.ArrayList;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A pool of Deflater and Inflater objects, shared by all threads.
+ * <br>A Deflater holds about 256k of native zlib memory at the highest compression level, which is released by
+ * <code>end()</code>, or else only when the garbage collector finalizes the object. Creating one for each image and
+ * never ending it shows up as growing process memory.
+ * <br>The pool keeps up to eight idle Deflaters, with any combination of level, strategy and nowrap, and up to four
+ * idle Inflaters, so at most about 2M of native memory is kept idle, regardless of the number of threads. When more
+ * are released, the least recently released one is ended. No object is kept by a thread, so threads not owned by
+ * APNG-builder, like the common pool or the threads of a given executor, never hold any. <code>clear()</code> ends all
+ * idle objects.
+ * <br>Every object acquired must be released exactly once, and must not be used or ended afterwards:
+ * <pre>
+ * Deflater deflater=ZlibPool.acquireDeflater(Deflater.BEST_COMPRESSION,Deflater.DEFAULT_STRATEGY,false);
+ * try {
+ * 	...
+ * }finally {
+ * 	ZlibPool.releaseDeflater(deflater);
+ * }
+ * </pre>
+ *
+ * @author Thomas Mattel
+ */
+public final class ZlibPool {
+	private static final int MAXIMUM_IDLE_DEFLATERS=8;
+	private static final int MAXIMUM_IDLE_INFLATERS=4;
+	private static final ArrayList<PooledDeflater> idleDeflaters=new ArrayList<PooledDeflater>(MAXIMUM_IDLE_DEFLATERS+1);
+	private static final ArrayList<Inflater> idleInflaters=new ArrayList<Inflater>(MAXIMUM_IDLE_INFLATERS+1);
+
+	private ZlibPool() {}
+
+	/**
+	 * Returns an idle Deflater of the pool, or a new one.
+	 * <br>The strategy is already applied, so a preset dictionary can be set right away.
+	 *
+	 * @param level the compression level, see Deflater
+	 * @param strategy the compression strategy, see Deflater
+	 * @param nowrap <code>true</code> for raw deflate data, without zlib header and checksum
+	 * @return a Deflater, ready to compress a new stream
+	 */
+	public static Deflater acquireDeflater(int level,int strategy,boolean nowrap) {
+		synchronized(idleDeflaters) {
+			for(int i=idleDeflaters.size()-1;i>=0;i--) {
+				PooledDeflater deflater=idleDeflaters.get(i);
+				if(deflater.level==level && deflater.strategy==strategy && deflater.nowrap==nowrap) {
+					return idleDeflaters.remove(i);
+				}
+			}
+		}
+		return new PooledDeflater(level,strategy,nowrap);
+	}
+
+	/**
+	 * Resets the given Deflater and keeps it in the pool, ending the least recently released Deflater if the pool is
+	 * full.
+	 * <br>A Deflater not acquired from the pool is ended.
+	 *
+	 * @param deflater the Deflater, might be <code>null</code>
+	 */
+	public static void releaseDeflater(Deflater deflater) {
+		if(deflater==null) {
+			return;
+		}
+		if(!(deflater instanceof PooledDeflater)) {
+			deflater.end();
+			return;
+		}
+		deflater.reset();
+		Deflater evicted=null;
+		synchronized(idleDeflaters) {
+			idleDeflaters.add((PooledDeflater)deflater);
+			if(idleDeflaters.size()>MAXIMUM_IDLE_DEFLATERS) {
+				evicted=idleDeflaters.remove(0);
+			}
+		}
+		if(evicted!=null) {
+			evicted.end();
+		}
+	}
+
+	/**
+	 * Returns an idle Inflater of the pool, or a new one.
+	 *
+	 * @return an Inflater for zlib streams, ready to decompress a new stream
+	 */
+	public static Inflater acquireInflater() {
+		synchronized(idleInflaters) {
+			if(!idleInflaters.isEmpty()) {
+				return idleInflaters.remove(idleInflaters.size()-1);
+			}
+		}
+		return new Inflater();
+	}
+
+	/**
+	 * Resets the given Inflater and keeps it in the pool, ending the least recently released Inflater if the pool is
+	 * full.
+	 *
+	 * @param inflater the Inflater, might be <code>null</code>
+	 */
+	public static void releaseInflater(Inflater inflater) {
+		if(inflater==null) {
+			return;
+		}
+		inflater.reset();
+		Inflater evicted=null;
+		synchronized(idleInflaters) {
+			idleInflaters.add(inflater);
+			if(idleInflaters.size()>MAXIMUM_IDLE_INFLATERS) {
+				evicted=idleInflaters.remove(0);
+			}
+		}
+		if(evicted!=null) {
+			evicted.end();
+		}
+	}
+
+	/**
+	 * Ends all idle Deflaters and Inflaters of the pool, releasing their native memory.
+	 * <br>Objects acquired at the time of the call are not affected, they are kept or ended when released.
+	 */
+	public static void clear() {
+		ArrayList<Deflater> deflaters;
+		synchronized(idleDeflaters) {
+			deflaters=new ArrayList<Deflater>(idleDeflaters);
+			idleDeflaters.clear();
+		}
+		for(int i=0;i<deflaters.size();i++) {
+			deflaters.get(i).end();
+		}
+		ArrayList<Inflater> inflaters;
+		synchronized(idleInflaters) {
+			inflaters=new ArrayList<Inflater>(idleInflaters);
+			idleInflaters.clear();
+		}
+		for(int i=0;i<inflaters.size();i++) {
+			inflaters.get(i).end();
+		}
+	}
+
+	/**
+	 * A Deflater, remembering the settings it is pooled by.
+	 */
+	private static class PooledDeflater extends Deflater {
+		final int level;
+		final int strategy;
+		final boolean nowrap;
+
+		PooledDeflater(int level,int strategy,boolean nowrap) {
+			super(level,nowrap);
+			this.level=level;
+			this.strategy=strategy;
+			this.nowrap=nowrap;
+			setStrategy(strategy);
+			//the strategy is applied by the next deflate call, which then returns without compressing anything
+			deflate(new byte[0],0,0,Deflater.NO_FLUSH);
+		}
+	}
+
+}
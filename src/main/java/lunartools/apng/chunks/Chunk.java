@@ -1,5 +1,11 @@
 package lunartools.apng.chunks;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
 import java.util.zip.CRC32;
 
@@ -22,25 +28,42 @@ public abstract class Chunk {
 	//	public static final int CHUNKDATA_INDEX=8;
 
 	byte[] data;
+	/** The complete chunk, if it is read from a memory mapped file instead of a bytearray */
+	private ByteBuffer buffer;
 	private int offset;
 	private int length;
+	private boolean flagReadFromFile;
+	private boolean flagCrcChecked;
 
 	Chunk() {}
 
 	/**
-	 * Creates Image Header chunk from PNG data.
+	 * Creates chunk from PNG data.
+	 * <br>Custom chunk types extend this class, and register their constructor with ChunkFactory.
 	 * 
 	 * @param png The complete data of a PNG file.
 	 * @param offset Offset to the chunk data.
 	 * @param length The chunk length.
+	 * @see ChunkFactory#register(String, ChunkConstructor)
 	 */
-	Chunk(byte[] png, Integer offset,Integer length) {
+	protected Chunk(byte[] png, int offset,int length) {
 		this.data=png;
 		this.offset=offset;
 		this.length=length;
-		if(!isCrcValid()) {
-			throw new RuntimeException("CRC error!");
-		}
+		this.flagReadFromFile=true;
+	}
+
+	/**
+	 * Creates chunk from a buffer, e.g. a memory mapped PNG file.
+	 * <br>The buffer is not copied, the CRC is verified when the chunk data is used.
+	 * 
+	 * @param chunk The complete chunk, from the length field to the CRC.
+	 * @param length The chunk length.
+	 */
+	Chunk(ByteBuffer chunk,int length) {
+		this.buffer=chunk;
+		this.length=length;
+		this.flagReadFromFile=true;
 	}
 
 	/** @return The total chunk length */
@@ -73,21 +96,118 @@ public abstract class Chunk {
 	 * @return The CHUNK DATA section of this chunk
 	 */
 	public byte[] getChunkData() {
+		checkCRC();
 		int offsetChunkdata=offset+LENGTH_SIZEINBYTES+CHUNKTYPE_SIZEINBYTES;
+		if(buffer!=null) {
+			byte[] chunkData=new byte[length];
+			slice(buffer,offsetChunkdata,length).get(chunkData);
+			return chunkData;
+		}
 		return Arrays.copyOfRange(data, offsetChunkdata, offsetChunkdata+length);
 	}
 
+	/**
+	 * Returns the CHUNK DATA section of this chunk, without copying it.
+	 * <br>The buffer shares the data of this chunk, it must not be modified.
+	 * 
+	 * @return The CHUNK DATA section of this chunk
+	 */
+	ByteBuffer getChunkDataBuffer() {
+		if(flagReadFromFile) {
+			checkCRC();
+		}
+		return slice(offset+LENGTH_SIZEINBYTES+CHUNKTYPE_SIZEINBYTES,length);
+	}
+
 	/**
 	 * @return The complete ByteArray of this chunk
 	 */
 	public byte[] toByteArray() {
-		ByteTools.bWriteLongwordToBytearray(data, calculateOffsetOfCRC(), calculateCRC());
+		checkCRC();
+		if(buffer!=null) {
+			byte[] bytes=new byte[getChunkLength()];
+			slice(offset,bytes.length).get(bytes);
+			return bytes;
+		}
 		if(offset>0) {
-			return Arrays.copyOfRange(data, offset, offset+LENGTH_SIZEINBYTES+CHUNKTYPE_SIZEINBYTES+length+CRC_SIZEINBYTES);
+			return Arrays.copyOfRange(data, offset, offset+getChunkLength());
 		}
 		return data;
 	}
 
+	/**
+	 * Returns the complete chunk as buffers, to be written with a gathering write.
+	 * <br>The buffers share the data of this chunk, nothing is copied.
+	 * 
+	 * @return The buffers of this chunk, in order
+	 */
+	public ByteBuffer[] toByteBuffers() {
+		checkCRC();
+		return new ByteBuffer[] {slice(offset,getChunkLength())};
+	}
+
+	/**
+	 * Writes the complete chunk to the given outputstream, without copying the chunk.
+	 * 
+	 * @param outputStream
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream outputStream) throws IOException {
+		checkCRC();
+		write(outputStream,slice(offset,getChunkLength()));
+	}
+
+	/**
+	 * The CRC of a new chunk is calculated once, the CRC of a chunk read from a file is verified once, when the chunk
+	 * is used for the first time.
+	 */
+	private void checkCRC() {
+		if(flagCrcChecked) {
+			return;
+		}
+		if(flagReadFromFile) {
+			if(!isCrcValid()) {
+				throw new RuntimeException("CRC error!");
+			}
+		}else {
+			ByteTools.bWriteLongwordToBytearray(data, calculateOffsetOfCRC(), calculateCRC());
+		}
+		flagCrcChecked=true;
+	}
+
+	private ByteBuffer slice(int index,int length) {
+		if(buffer!=null) {
+			return slice(buffer,index,length);
+		}
+		return ByteBuffer.wrap(data, index, length).slice();
+	}
+
+	static ByteBuffer slice(ByteBuffer buffer,int index,int length) {
+		ByteBuffer duplicate=buffer.duplicate();
+		//called via Buffer, ByteBuffer overrides these methods since Java 9 only
+		((Buffer)duplicate).position(index);
+		((Buffer)duplicate).limit(index+length);
+		return duplicate.slice();
+	}
+
+	/**
+	 * Writes the buffer to the given outputstream, without copying it if the buffer is backed by a bytearray.
+	 * 
+	 * @param outputStream
+	 * @param byteBuffer
+	 * @throws IOException
+	 */
+	static void write(OutputStream outputStream,ByteBuffer byteBuffer) throws IOException {
+		if(byteBuffer.hasArray()) {
+			outputStream.write(byteBuffer.array(), byteBuffer.arrayOffset()+byteBuffer.position(), byteBuffer.remaining());
+			return;
+		}
+		WritableByteChannel channel=Channels.newChannel(outputStream);
+		while(byteBuffer.hasRemaining()) {
+			channel.write(byteBuffer);
+		}
+	}
+
 	/**
 	 * A four-byte CRC (Cyclic Redundancy Code) calculated on the preceding bytes in the chunk, including the chunk type field and chunk data fields, but not including the length field. The CRC can be used to check for corruption of the data.
 	 * The CRC is always present, even for chunks containing no data.
@@ -96,11 +216,18 @@ public abstract class Chunk {
 	 */
 	private long calculateCRC() {
 		CRC32 crc32=new CRC32();
-		crc32.update(data, offset+LENGTH_SIZEINBYTES,length+CHUNKTYPE_INDEX);
+		if(buffer!=null) {
+			crc32.update(slice(buffer,offset+LENGTH_SIZEINBYTES,length+CHUNKTYPE_INDEX));
+		}else {
+			crc32.update(data, offset+LENGTH_SIZEINBYTES,length+CHUNKTYPE_INDEX);
+		}
 		return crc32.getValue();
 	}
 
 	private long getCRC() {
+		if(buffer!=null) {
+			return buffer.getInt(calculateOffsetOfCRC())&0xffffffffL;
+		}
 		return ByteTools.bBytearrayToLongword(data, calculateOffsetOfCRC());
 	}
 
@@ -0,0 +1,22 @@
+package lunartools.apng.chunks;
+
+/**
+ * Creates a chunk object of one chunk type from PNG data, usually the constructor of the chunk class.
+ * 
+ * @see ChunkFactory#register(String, ChunkConstructor)
+ * @author Thomas Mattel
+ */
+@FunctionalInterface
+public interface ChunkConstructor {
+
+	/**
+	 * Creates a chunk object.
+	 * 
+	 * @param png The complete data of a PNG file.
+	 * @param offset Offset to the chunk data.
+	 * @param length The chunk length.
+	 * @return The created chunk object.
+	 */
+	Chunk create(byte[] png, int offset,int length);
+
+}
@@ -1,16 +1,112 @@
 package lunartools.apng.chunks;
 
-import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import lunartools.ByteTools;
 
 /**
  * Creates chunk objects from PNG data.
+ * <br>Each chunk type is mapped to the constructor of its chunk class, chunk types without a constructor are stored as
+ * Chunk_OTHER. The chunk type is compared as int, no reflection is used.
+ * <br>Constructors of custom chunk types can be registered, before PNG data is parsed.
+ * <br>The chunk types and their constructors are published together as one immutable registry, so a thread parsing
+ * PNG data while another thread registers a constructor sees either the old or the new registry, never a mix.
  * 
+ * @see Chunk_IHDR
+ * @see Chunk_tRNS
+ * @see Chunk_tEXt
+ * @see Chunk_zTXt
+ * @see Chunk_PLTE
+ * @see Chunk_IDAT
+ * @see Chunk_IEND
+ * @see Chunk_acTL
+ * @see Chunk_fcTL
+ * @see Chunk_fdAT
  * @author Thomas Mattel
  */
 public class ChunkFactory {
-	private ChunkHashMap allKnownChunks=new ChunkHashMap();
+	private static final int TYPE_IDAT=toType(Chunk_IDAT.TYPE);
+	private volatile Registry registry=new Registry(new int[0],new ChunkConstructor[0]);
+	private final boolean flagUnmodifiable;
+	/** The last unmodifiable copy, or <code>null</code> */
+	private ChunkFactory unmodifiableCopy;
+
+	/**
+	 * Creates a factory for all chunks supported by APNG-builder.
+	 */
+	public ChunkFactory() {
+		this.flagUnmodifiable=false;
+		register(Chunk_IHDR.TYPE,Chunk_IHDR::new);
+		register(Chunk_tRNS.TYPE,Chunk_tRNS::new);
+		register(Chunk_tEXt.TYPE,Chunk_tEXt::new);
+		register(Chunk_zTXt.TYPE,Chunk_zTXt::new);
+		register(Chunk_PLTE.TYPE,Chunk_PLTE::new);
+		register(Chunk_IDAT.TYPE,Chunk_IDAT::new);
+		register(Chunk_IEND.TYPE,Chunk_IEND::new);
+
+		register(Chunk_acTL.TYPE,Chunk_acTL::new);
+		register(Chunk_fcTL.TYPE,Chunk_fcTL::new);
+		register(Chunk_fdAT.TYPE,Chunk_fdAT::new);
+	}
+
+	private ChunkFactory(Registry registry) {
+		this.registry=registry;
+		this.flagUnmodifiable=true;
+	}
+
+	/**
+	 * Registers the constructor of a chunk type, replacing the constructor registered before.
+	 * <br>PNG data parsed concurrently is parsed with either the constructors registered before, or with this one.
+	 * 
+	 * @param type The 4-byte chunk type, e.g. "tIME"
+	 * @param constructor Creates the chunk objects of this type
+	 * @return this factory
+	 * @throws UnsupportedOperationException if this factory is an unmodifiable copy
+	 */
+	public synchronized ChunkFactory register(String type,ChunkConstructor constructor) {
+		if(constructor==null) {
+			throw new NullPointerException("constructor");
+		}
+		if(flagUnmodifiable) {
+			throw new UnsupportedOperationException("chunk factory is unmodifiable");
+		}
+		int typeInt=toType(type);
+		int[] types=registry.types;
+		ChunkConstructor[] constructors=registry.constructors;
+		for(int i=0;i<types.length;i++) {
+			if(types[i]==typeInt) {
+				ChunkConstructor[] constructorsNew=constructors.clone();
+				constructorsNew[i]=constructor;
+				this.registry=new Registry(types,constructorsNew);
+				return this;
+			}
+		}
+		int[] typesNew=Arrays.copyOf(types,types.length+1);
+		ChunkConstructor[] constructorsNew=Arrays.copyOf(constructors,constructors.length+1);
+		typesNew[types.length]=typeInt;
+		constructorsNew[constructors.length]=constructor;
+		this.registry=new Registry(typesNew,constructorsNew);
+		return this;
+	}
+
+	/**
+	 * Returns an unmodifiable copy of this factory, with the constructors registered so far.
+	 * <br>Constructors registered with this factory afterwards are not used by the copy. As long as no constructor is
+	 * registered, the same copy is returned again.
+	 * 
+	 * @return an unmodifiable copy, or this factory if it is unmodifiable already
+	 */
+	public synchronized ChunkFactory toUnmodifiable() {
+		if(flagUnmodifiable) {
+			return this;
+		}
+		if(unmodifiableCopy==null || unmodifiableCopy.registry!=registry) {
+			unmodifiableCopy=new ChunkFactory(registry);
+		}
+		return unmodifiableCopy;
+	}
 
 	/**
 	 * Creates a chunk object from the given position of the PNG data.
@@ -21,25 +117,58 @@ public class ChunkFactory {
 	 */
 	public Chunk createChunk(byte[] baPng, int offset){
 		int length=(int)ByteTools.bBytearrayToLongword(baPng,offset);
-		String type=getChunkType(baPng,offset+Chunk.LENGTH_SIZEINBYTES);
-		@SuppressWarnings("unchecked")
-		Class<Chunk> clazz=allKnownChunks.get(type);
-		if(clazz!=null) {
-			Chunk chunk=null;
-			try {
-				Constructor<Chunk> constructor=clazz.getDeclaredConstructor(byte[].class,Integer.class,Integer.class);
-				chunk=constructor.newInstance(baPng,offset,length);
-			} catch (Exception e) {
-				throw new RuntimeException("could not create chunk object: "+type,e);
+		int type=(int)ByteTools.bBytearrayToLongword(baPng,offset+Chunk.CHUNKTYPE_INDEX);
+		Registry registry=this.registry;
+		int[] types=registry.types;
+		for(int i=0;i<types.length;i++) {
+			if(types[i]==type) {
+				return registry.constructors[i].create(baPng,offset,length);
 			}
-			return chunk;
-		}else {
-			return new Chunk_OTHER(baPng,offset,length,type);
 		}
+		return new Chunk_OTHER(baPng,offset,length);
 	}
 
-	private String getChunkType(byte[] baPng, int index) {
-		return new String(baPng, index, Chunk.CHUNKTYPE_SIZEINBYTES);
+	/**
+	 * Creates a chunk object from the given position of the PNG data, e.g. a memory mapped PNG file.
+	 * <br>Image data chunks keep a slice of the buffer, all other chunks are copied to a bytearray.
+	 * 
+	 * @param png The buffer of the PNG data.
+	 * @param offset Offset to the chunk data.
+	 * @return The created chunk object.
+	 */
+	public Chunk createChunk(ByteBuffer png, int offset){
+		int length=png.getInt(offset);
+		if(length<0 || offset+Chunk.DATAOFFSET+length+Chunk.CRC_SIZEINBYTES>png.limit()) {
+			throw new RuntimeException("invalid chunk length: "+length);
+		}
+		ByteBuffer chunk=Chunk.slice(png,offset,Chunk.DATAOFFSET+length+Chunk.CRC_SIZEINBYTES);
+		if(png.getInt(offset+Chunk.CHUNKTYPE_INDEX)==TYPE_IDAT) {
+			return new Chunk_IDAT(chunk,length);
+		}
+		byte[] baChunk=new byte[chunk.remaining()];
+		chunk.get(baChunk);
+		return createChunk(baChunk,0);
+	}
+
+	private static int toType(String type) {
+		byte[] bytes=type.getBytes(StandardCharsets.ISO_8859_1);
+		if(bytes.length!=Chunk.CHUNKTYPE_SIZEINBYTES) {
+			throw new IllegalArgumentException("chunk type must have 4 characters: "+type);
+		}
+		return ByteBuffer.wrap(bytes).getInt();
+	}
+
+	/**
+	 * The registered chunk types and their constructors, at the same index. Never modified once published.
+	 */
+	private static class Registry {
+		final int[] types;
+		final ChunkConstructor[] constructors;
+
+		Registry(int[] types,ChunkConstructor[] constructors) {
+			this.types=types;
+			this.constructors=constructors;
+		}
 	}
 
 }
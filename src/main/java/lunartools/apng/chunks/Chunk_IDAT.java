@@ -1,7 +1,6 @@
 package lunartools.apng.chunks;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import lunartools.ByteTools;
 
@@ -21,10 +20,20 @@ public class Chunk_IDAT extends Chunk{
 	 * @param index Index to the chunk data.
 	 * @param length The chunk length.
 	 */
-	Chunk_IDAT(byte[] png, Integer index,Integer length) {
+	Chunk_IDAT(byte[] png, int index,int length) {
 		super(png, index,length);
 	}
 
+	/**
+	 * Creates image data chunk from a buffer, e.g. a memory mapped PNG file, without copying the image data.
+	 * 
+	 * @param chunk The complete chunk, from the length field to the CRC.
+	 * @param length The chunk length.
+	 */
+	Chunk_IDAT(ByteBuffer chunk,int length) {
+		super(chunk,length);
+	}
+
 	/**
 	 * Creates new image data chunk.
 	 * 
@@ -33,16 +42,10 @@ public class Chunk_IDAT extends Chunk{
 	public Chunk_IDAT(byte[] byteArray) {
 		int length=byteArray.length;
 		setDataLength(length);
-		try {
-			ByteArrayOutputStream baos=new ByteArrayOutputStream();
-			baos.write(ByteTools.bLongwordToBytearray(length));
-			baos.write(TYPE.getBytes());
-			baos.write(byteArray);
-			baos.write(ByteTools.bLongwordToBytearray(0));//CRC, calculated later
-			data=baos.toByteArray();
-		} catch (IOException e) {
-			throw new RuntimeException("Could not create "+TYPE+" bytearray",e);
-		}
+		data=new byte[DATAOFFSET+length+CRC_SIZEINBYTES];//CRC, calculated later
+		ByteTools.bWriteLongwordToBytearray(data, 0, length);
+		System.arraycopy(TYPE.getBytes(), 0, data, CHUNKTYPE_INDEX, CHUNKTYPE_SIZEINBYTES);
+		System.arraycopy(byteArray, 0, data, DATAOFFSET, length);
 	}
 
 	@Override
@@ -21,7 +21,7 @@ public class Chunk_IEND extends Chunk{
 	 * @param index Index to the chunk data.
 	 * @param length The chunk length.
 	 */
-	Chunk_IEND(byte[] png, Integer index,Integer length) {
+	Chunk_IEND(byte[] png, int index,int length) {
 		super(png, index,length);
 	}
 
@@ -51,7 +51,7 @@ public class Chunk_IHDR extends Chunk{
 	 * @param index Index to the chunk data.
 	 * @param length The chunk length.
 	 */
-	Chunk_IHDR(byte[] png, Integer index,Integer length) {
+	Chunk_IHDR(byte[] png, int index,int length) {
 		super(png, index,length);
 	}
 
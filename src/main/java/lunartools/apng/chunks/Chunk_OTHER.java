@@ -6,7 +6,6 @@ package lunartools.apng.chunks;
  * @author Thomas Mattel
  */
 class Chunk_OTHER extends Chunk{
-	private String type;
 
 	/**
 	 * Creates an object to store data of an unsupported chunk.
@@ -14,16 +13,19 @@ class Chunk_OTHER extends Chunk{
 	 * @param png The complete data of a PNG file.
 	 * @param index Index to the chunk data.
 	 * @param length The chunk length.
-	 * @param type The 4-byte chunk type.
 	 */
-	Chunk_OTHER(byte[] png, Integer index,Integer length, String type) {
+	Chunk_OTHER(byte[] png, int index,int length) {
 		super(png, index,length);
-		this.type=type;
+	}
+
+	/** @return The 4-byte chunk type */
+	private String getType() {
+		return new String(data, getOffset()+CHUNKTYPE_INDEX, CHUNKTYPE_SIZEINBYTES);
 	}
 
 	@Override
 	public String toString() {
-		return type+": length="+getDataLength();
+		return getType()+": length="+getDataLength();
 	}
 
 }
@@ -24,27 +24,35 @@ public class Chunk_PLTE extends Chunk{
 	 * @param index Index to the chunk data.
 	 * @param length The chunk length.
 	 */
-	Chunk_PLTE(byte[] png, Integer index,Integer length) {
+	Chunk_PLTE(byte[] png, int index,int length) {
 		super(png, index,length);
 	}
 	
 	/**
 	 * Create new palette chunk.
 	 * 
-	 * @param palette An array of transparent colours
+	 * @param palette An array of colours
 	 */
 	public Chunk_PLTE(ArrayList<ColourRGB> palette) {
-		int length=palette.size()*3;
+		this(toRgbInts(palette));
+	}
+
+	/**
+	 * Create new palette chunk.
+	 * 
+	 * @param palette An array of RGB colours
+	 */
+	public Chunk_PLTE(int[] palette) {
+		int length=palette.length*3;
 		setDataLength(length);
 		try {
 			ByteArrayOutputStream baos=new ByteArrayOutputStream();
 			baos.write(ByteTools.bLongwordToBytearray(length));
 			baos.write(TYPE.getBytes());
-			for(int i=0;i<palette.size();i++) {
-				ColourRGB color=palette.get(i);
-				baos.write((byte)color.getRed());
-				baos.write((byte)color.getGreen());
-				baos.write((byte)color.getBlue());
+			for(int i=0;i<palette.length;i++) {
+				baos.write((byte)(palette[i]>>16));
+				baos.write((byte)(palette[i]>>8));
+				baos.write((byte)palette[i]);
 			}
 			baos.write(ByteTools.bLongwordToBytearray(0));//CRC, calculated later
 			data=baos.toByteArray();
@@ -53,6 +61,14 @@ public class Chunk_PLTE extends Chunk{
 		}
 	}
 		
+	private static int[] toRgbInts(ArrayList<ColourRGB> palette) {
+		int[] rgbInts=new int[palette.size()];
+		for(int i=0;i<rgbInts.length;i++) {
+			rgbInts[i]=palette.get(i).getColour();
+		}
+		return rgbInts;
+	}
+
 	@Override
 	public String toString() {
 		return TYPE+": length="+getDataLength()+", size[numberOfColours]="+getDataLength()/3
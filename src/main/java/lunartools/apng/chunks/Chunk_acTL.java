@@ -24,7 +24,7 @@ public class Chunk_acTL extends Chunk{
 	 * @param index Index to the chunk data.
 	 * @param length The chunk length.
 	 */
-	Chunk_acTL(byte[] png, Integer index,Integer length) {
+	Chunk_acTL(byte[] png, int index,int length) {
 		super(png, index,length);
 	}
 
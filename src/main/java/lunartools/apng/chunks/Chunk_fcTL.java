@@ -59,7 +59,7 @@ public class Chunk_fcTL extends Chunk{
 	 * @param index Index to the chunk data.
 	 * @param length The chunk length.
 	 */
-	Chunk_fcTL(byte[] png, Integer index,Integer length) {
+	Chunk_fcTL(byte[] png, int index,int length) {
 		super(png, index,length);
 	}
 
@@ -1,7 +1,9 @@
 package lunartools.apng.chunks;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
 
 import lunartools.ByteTools;
 
@@ -14,6 +16,11 @@ import lunartools.ByteTools;
 public class Chunk_fdAT extends Chunk{
 	public static final String TYPE="fdAT";
 	private static final int OFFSET_SEQUENCE_NUMBER=DATAOFFSET+	 0;
+	/** The IDAT chunk whose data is shared, or <code>null</code> if this chunk was read from an APNG file */
+	private Chunk_IDAT chunk_IDAT;
+	/** Length, chunk type and sequence number */
+	private byte[] header;
+	private byte[] crc;
 
 	/**
 	 * Creates frame data chunk from PNG data.
@@ -22,35 +29,83 @@ public class Chunk_fdAT extends Chunk{
 	 * @param index Index to the chunk data.
 	 * @param length The chunk length.
 	 */
-	Chunk_fdAT(byte[] png, Integer index,Integer length) {
+	Chunk_fdAT(byte[] png, int index,int length) {
 		super(png, index,length);
 	}
 
 	/**
 	 * Creates new frame data chunk.
+	 * <br>The image data is not copied, the chunk consists of its own header, the data of the IDAT chunk, and the CRC.
 	 * 
 	 * @param sequenceNumber The sequence number of this image
 	 * @param chunk_IDAT The IDAT chunk that contains the image data used for this frame data chunk
 	 */
 	public Chunk_fdAT(int sequenceNumber,Chunk_IDAT chunk_IDAT) {
-		byte[] idatChunkData=chunk_IDAT.getChunkData();
-		int length=idatChunkData.length+4;
+		this.chunk_IDAT=chunk_IDAT;
+		int length=chunk_IDAT.getDataLength()+4;
 		setDataLength(length);
-		try {
-			ByteArrayOutputStream baos=new ByteArrayOutputStream();
-			baos.write(ByteTools.bLongwordToBytearray(length));
-			baos.write(TYPE.getBytes());
-			baos.write(ByteTools.bLongwordToBytearray(sequenceNumber));
-			baos.write(idatChunkData);
-			baos.write(ByteTools.bLongwordToBytearray(0));//CRC, calculated later
-			data=baos.toByteArray();
-		} catch (IOException e) {
-			throw new RuntimeException("Could not create "+TYPE+" bytearray",e);
+		header=new byte[DATAOFFSET+4];
+		ByteTools.bWriteLongwordToBytearray(header, 0, length);
+		System.arraycopy(TYPE.getBytes(), 0, header, CHUNKTYPE_INDEX, CHUNKTYPE_SIZEINBYTES);
+		ByteTools.bWriteLongwordToBytearray(header, DATAOFFSET, sequenceNumber);
+		CRC32 crc32=new CRC32();
+		crc32.update(header, CHUNKTYPE_INDEX, header.length-CHUNKTYPE_INDEX);
+		crc32.update(chunk_IDAT.getChunkDataBuffer());
+		crc=new byte[CRC_SIZEINBYTES];
+		ByteTools.bWriteLongwordToBytearray(crc, 0, crc32.getValue());
+	}
+
+	@Override
+	public byte[] getChunkData() {
+		if(chunk_IDAT==null) {
+			return super.getChunkData();
+		}
+		byte[] chunkData=new byte[getDataLength()];
+		System.arraycopy(header, DATAOFFSET, chunkData, 0, 4);
+		chunk_IDAT.getChunkDataBuffer().get(chunkData, 4, chunk_IDAT.getDataLength());
+		return chunkData;
+	}
+
+	@Override
+	public byte[] toByteArray() {
+		if(chunk_IDAT==null) {
+			return super.toByteArray();
+		}
+		byte[] bytes=new byte[getChunkLength()];
+		System.arraycopy(header, 0, bytes, 0, header.length);
+		chunk_IDAT.getChunkDataBuffer().get(bytes, header.length, chunk_IDAT.getDataLength());
+		System.arraycopy(crc, 0, bytes, bytes.length-CRC_SIZEINBYTES, CRC_SIZEINBYTES);
+		return bytes;
+	}
+
+	@Override
+	public ByteBuffer[] toByteBuffers() {
+		if(chunk_IDAT==null) {
+			return super.toByteBuffers();
+		}
+		return new ByteBuffer[] {
+				ByteBuffer.wrap(header),
+				chunk_IDAT.getChunkDataBuffer(),
+				ByteBuffer.wrap(crc)
+		};
+	}
+
+	@Override
+	public void writeTo(OutputStream outputStream) throws IOException {
+		if(chunk_IDAT==null) {
+			super.writeTo(outputStream);
+			return;
 		}
+		outputStream.write(header);
+		write(outputStream,chunk_IDAT.getChunkDataBuffer());
+		outputStream.write(crc);
 	}
 
 	/** (unsigned int)   Sequence number of the animation chunk, starting from 0 */
 	private int getSequenceNumber() {
+		if(chunk_IDAT!=null) {
+			return (int)ByteTools.bBytearrayToLongword(header,DATAOFFSET);
+		}
 		return (int)ByteTools.bBytearrayToLongword(data,getOffset()+OFFSET_SEQUENCE_NUMBER);
 	}
 
@@ -32,7 +32,7 @@ public class Chunk_tRNS extends Chunk{
 	 * @param index Index to the chunk data.
 	 * @param length The chunk length.
 	 */
-	Chunk_tRNS(byte[] png, Integer index,Integer length) {
+	Chunk_tRNS(byte[] png, int index,int length) {
 		super(png, index,length);
 	}
 
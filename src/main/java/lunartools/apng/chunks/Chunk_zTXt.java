@@ -9,6 +9,7 @@ import java.util.zip.Inflater;
 import java.util.zip.InflaterOutputStream;
 
 import lunartools.ByteTools;
+import lunartools.apng.ZlibPool;
 
 /**
  * Compressed textual data
@@ -30,7 +31,7 @@ public class Chunk_zTXt extends Chunk{
 	 * @param index Index to the chunk data.
 	 * @param length The chunk length.
 	 */
-	Chunk_zTXt(byte[] png, Integer index,Integer length) {
+	Chunk_zTXt(byte[] png, int index,int length) {
 		super(png, index,length);
 	}
 
@@ -94,8 +95,8 @@ public class Chunk_zTXt extends Chunk{
 
 	private byte[] compress(byte[] bytes) {
 		ByteArrayOutputStream baos=new ByteArrayOutputStream();
+		Deflater deflater=ZlibPool.acquireDeflater(Deflater.BEST_COMPRESSION,Deflater.DEFAULT_STRATEGY,false);
 		try {
-			Deflater deflater=new Deflater(Deflater.BEST_COMPRESSION);
 			DeflaterOutputStream deflaterOutputStream=new DeflaterOutputStream(baos,deflater);
 			deflaterOutputStream.write(bytes);
 			deflaterOutputStream.finish();
@@ -103,14 +104,16 @@ public class Chunk_zTXt extends Chunk{
 			deflaterOutputStream.close();
 		} catch (Exception e) {
 			throw new RuntimeException("Error compressing "+TYPE+" text",e);
+		}finally {
+			ZlibPool.releaseDeflater(deflater);
 		}
 		return baos.toByteArray();
 	}
 
 	private byte[] decompress(byte[] bytes) {
 		ByteArrayOutputStream baos=new ByteArrayOutputStream();
+		Inflater inflater=ZlibPool.acquireInflater();
 		try {
-			Inflater inflater=new Inflater();
 			InflaterOutputStream inflaterOutputStream=new InflaterOutputStream(baos,inflater);
 			inflaterOutputStream.write(bytes);
 			inflaterOutputStream.finish();
@@ -118,6 +121,8 @@ public class Chunk_zTXt extends Chunk{
 			inflaterOutputStream.close();
 		} catch (Exception e) {
 			throw new RuntimeException("Error decompressing "+TYPE+" text",e);
+		}finally {
+			ZlibPool.releaseInflater(inflater);
 		}
 		return baos.toByteArray();
 	}
@@ -0,0 +1,322 @@
+package lunartools.apng;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events of the encoding stages, to find them in a recording, e.g. to correlate GC pauses with
+ * the allocations of the colour analysis.
+ * <br>Each stage calls <code>begin...()</code> before and <code>commit...()</code> after its work. If the JVM does
+ * not support JFR, if nothing has been recorded yet, or if the event is not enabled in the running recording,
+ * <code>begin...()</code> returns <code>null</code> and nothing is recorded.
+ * <br>This is the implementation for Java 11 and later in the multi-release jar, the Java 8 implementation records
+ * nothing. The event classes are only loaded if the module <code>jdk.jfr</code> is available, so the event types do
+ * not appear in the signatures of this class.
+ *
+ * @author Thomas Mattel
+ */
+final class JfrEvents {
+	private static final boolean JFR_AVAILABLE=isJfrAvailable();
+
+	private JfrEvents() {}
+
+	private static boolean isJfrAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event",false,JfrEvents.class.getClassLoader());
+			return true;
+		} catch (ClassNotFoundException | LinkageError e) {
+			return false;
+		}
+	}
+
+	/** @return the started event, or <code>null</code> if not recorded */
+	static Object beginFrameEncoded() {
+		return JFR_AVAILABLE?Recorder.begin(Recorder.FRAME_ENCODED):null;
+	}
+
+	/**
+	 * @param event the event returned by beginFrameEncoded(), might be <code>null</code>
+	 * @param frameIndex the index of the image
+	 * @param width the width of the encoded area
+	 * @param height the height of the encoded area
+	 * @param bytesIn the size of the filtered scanlines
+	 * @param bytesOut the size of the compressed image data
+	 */
+	static void commitFrameEncoded(Object event,int frameIndex,int width,int height,long bytesIn,long bytesOut) {
+		if(event!=null) {
+			Recorder.commitFrameEncoded(event,frameIndex,width,height,bytesIn,bytesOut);
+		}
+	}
+
+	/** @return the started event, or <code>null</code> if not recorded */
+	static Object beginImageFiltered() {
+		return JFR_AVAILABLE?Recorder.begin(Recorder.IMAGE_FILTERED):null;
+	}
+
+	/**
+	 * @param event the event returned by beginImageFiltered(), might be <code>null</code>
+	 * @param width the width of the image
+	 * @param height the height of the image
+	 * @param bytesIn the size of the pixeldata
+	 * @param bytesOut the size of the filtered scanlines
+	 */
+	static void commitImageFiltered(Object event,int width,int height,long bytesIn,long bytesOut) {
+		if(event!=null) {
+			Recorder.commitImageFiltered(event,width,height,bytesIn,bytesOut);
+		}
+	}
+
+	/** @return the started event, or <code>null</code> if not recorded */
+	static Object beginDeflateBlock() {
+		return JFR_AVAILABLE?Recorder.begin(Recorder.DEFLATE_BLOCK):null;
+	}
+
+	/**
+	 * @param event the event returned by beginDeflateBlock(), might be <code>null</code>
+	 * @param bytesIn the size of the uncompressed block
+	 * @param bytesOut the size of the compressed block
+	 */
+	static void commitDeflateBlock(Object event,long bytesIn,long bytesOut) {
+		if(event!=null) {
+			Recorder.commitDeflateBlock(event,bytesIn,bytesOut);
+		}
+	}
+
+	/** @return the started event, or <code>null</code> if not recorded */
+	static Object beginColourAnalysis() {
+		return JFR_AVAILABLE?Recorder.begin(Recorder.COLOUR_ANALYSIS):null;
+	}
+
+	/**
+	 * @param event the event returned by beginColourAnalysis(), might be <code>null</code>
+	 * @param numberOfImages the number of images analyzed
+	 * @param numberOfColours the number of colours found
+	 */
+	static void commitColourAnalysis(Object event,int numberOfImages,int numberOfColours) {
+		if(event!=null) {
+			Recorder.commitColourAnalysis(event,numberOfImages,numberOfColours);
+		}
+	}
+
+	/** @return the started event, or <code>null</code> if not recorded */
+	static Object beginQuantization() {
+		return JFR_AVAILABLE?Recorder.begin(Recorder.QUANTIZATION):null;
+	}
+
+	/**
+	 * @param event the event returned by beginQuantization(), might be <code>null</code>
+	 * @param numberOfImages the number of images quantized
+	 * @param width the width of the images
+	 * @param height the height of the images
+	 * @param numberOfColours the maximum number of colours
+	 */
+	static void commitQuantization(Object event,int numberOfImages,int width,int height,int numberOfColours) {
+		if(event!=null) {
+			Recorder.commitQuantization(event,numberOfImages,width,height,numberOfColours);
+		}
+	}
+
+	/** @return the started event, or <code>null</code> if not recorded */
+	static Object beginChunkWrite() {
+		return JFR_AVAILABLE?Recorder.begin(Recorder.CHUNK_WRITE):null;
+	}
+
+	/**
+	 * @param event the event returned by beginChunkWrite(), might be <code>null</code>
+	 * @param chunkClass the class of the chunk
+	 * @param bytes the total chunk length
+	 */
+	static void commitChunkWrite(Object event,Class<?> chunkClass,long bytes) {
+		if(event!=null) {
+			Recorder.commitChunkWrite(event,chunkClass,bytes);
+		}
+	}
+
+	/**
+	 * Creates the events, only loaded if JFR is available.
+	 * <br>No event class is loaded until the Flight Recorder has been initialized by the first recording, so there
+	 * is no startup cost if nothing is recorded.
+	 */
+	private static class Recorder {
+		static final int FRAME_ENCODED=0;
+		static final int IMAGE_FILTERED=1;
+		static final int DEFLATE_BLOCK=2;
+		static final int COLOUR_ANALYSIS=3;
+		static final int QUANTIZATION=4;
+		static final int CHUNK_WRITE=5;
+
+		static Object begin(int type) {
+			if(!FlightRecorder.isInitialized()) {
+				return null;
+			}
+			Event event;
+			switch(type) {
+			case FRAME_ENCODED:
+				event=new FrameEncoded();
+				break;
+			case IMAGE_FILTERED:
+				event=new ImageFiltered();
+				break;
+			case DEFLATE_BLOCK:
+				event=new DeflateBlock();
+				break;
+			case COLOUR_ANALYSIS:
+				event=new ColourAnalysis();
+				break;
+			case QUANTIZATION:
+				event=new Quantization();
+				break;
+			default:
+				event=new ChunkWrite();
+				break;
+			}
+			if(!event.isEnabled()) {
+				return null;
+			}
+			event.begin();
+			return event;
+		}
+
+		static void commitFrameEncoded(Object object,int frameIndex,int width,int height,long bytesIn,long bytesOut) {
+			FrameEncoded event=(FrameEncoded)object;
+			event.frameIndex=frameIndex;
+			event.width=width;
+			event.height=height;
+			event.bytesIn=bytesIn;
+			event.bytesOut=bytesOut;
+			event.commit();
+		}
+
+		static void commitImageFiltered(Object object,int width,int height,long bytesIn,long bytesOut) {
+			ImageFiltered event=(ImageFiltered)object;
+			event.width=width;
+			event.height=height;
+			event.bytesIn=bytesIn;
+			event.bytesOut=bytesOut;
+			event.commit();
+		}
+
+		static void commitDeflateBlock(Object object,long bytesIn,long bytesOut) {
+			DeflateBlock event=(DeflateBlock)object;
+			event.bytesIn=bytesIn;
+			event.bytesOut=bytesOut;
+			event.commit();
+		}
+
+		static void commitColourAnalysis(Object object,int numberOfImages,int numberOfColours) {
+			ColourAnalysis event=(ColourAnalysis)object;
+			event.numberOfImages=numberOfImages;
+			event.numberOfColours=numberOfColours;
+			event.commit();
+		}
+
+		static void commitQuantization(Object object,int numberOfImages,int width,int height,int numberOfColours) {
+			Quantization event=(Quantization)object;
+			event.numberOfImages=numberOfImages;
+			event.width=width;
+			event.height=height;
+			event.numberOfColours=numberOfColours;
+			event.commit();
+		}
+
+		static void commitChunkWrite(Object object,Class<?> chunkClass,long bytes) {
+			ChunkWrite event=(ChunkWrite)object;
+			event.chunkClass=chunkClass;
+			event.bytes=bytes;
+			event.commit();
+		}
+	}
+
+	@Name("lunartools.apng.FrameEncoded")
+	@Label("Frame Encoded")
+	@Description("An image encoded by the PngEncoder, once for each candidate of the optimizations")
+	@Category("APNG-builder")
+	static class FrameEncoded extends Event {
+		@Label("Frame Index")
+		int frameIndex;
+		@Label("Width")
+		int width;
+		@Label("Height")
+		int height;
+		@Label("Bytes In")
+		@DataAmount
+		long bytesIn;
+		@Label("Bytes Out")
+		@DataAmount
+		long bytesOut;
+	}
+
+	@Name("lunartools.apng.ImageFiltered")
+	@Label("Image Filtered")
+	@Description("The scanlines of an image filtered by the PngEncoder")
+	@Category("APNG-builder")
+	static class ImageFiltered extends Event {
+		@Label("Width")
+		int width;
+		@Label("Height")
+		int height;
+		@Label("Bytes In")
+		@DataAmount
+		long bytesIn;
+		@Label("Bytes Out")
+		@DataAmount
+		long bytesOut;
+	}
+
+	@Name("lunartools.apng.DeflateBlock")
+	@Label("Deflate Block")
+	@Description("A block of filtered scanlines deflated, an image is split into several blocks if the deflate parallelism is set")
+	@Category("APNG-builder")
+	static class DeflateBlock extends Event {
+		@Label("Bytes In")
+		@DataAmount
+		long bytesIn;
+		@Label("Bytes Out")
+		@DataAmount
+		long bytesOut;
+	}
+
+	@Name("lunartools.apng.ColourAnalysis")
+	@Label("Colour Analysis")
+	@Description("The colours of all images of an animation analyzed")
+	@Category("APNG-builder")
+	static class ColourAnalysis extends Event {
+		@Label("Number Of Images")
+		int numberOfImages;
+		@Label("Number Of Colours")
+		int numberOfColours;
+	}
+
+	@Name("lunartools.apng.Quantization")
+	@Label("Quantization")
+	@Description("The colours of all images of an animation reduced by the colour quantizer")
+	@Category("APNG-builder")
+	static class Quantization extends Event {
+		@Label("Number Of Images")
+		int numberOfImages;
+		@Label("Width")
+		int width;
+		@Label("Height")
+		int height;
+		@Label("Number Of Colours")
+		int numberOfColours;
+	}
+
+	@Name("lunartools.apng.ChunkWrite")
+	@Label("Chunk Write")
+	@Description("A chunk written to a bytearray, an outputstream or a channel")
+	@Category("APNG-builder")
+	static class ChunkWrite extends Event {
+		@Label("Chunk Class")
+		Class<?> chunkClass;
+		@Label("Bytes")
+		@DataAmount
+		long bytes;
+	}
+
+}
@@ -0,0 +1,62 @@
+package lunartools.apng;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares an image with a reference image, several pixel at once using the Vector API.
+ * <br>This is the implementation for Java 17 and later in the multi-release jar. The Vector API is an incubator
+ * module, which is only used if it is added to the JVM (<code>--add-modules jdk.incubator.vector</code>), otherwise
+ * the pixel are compared one by one, like the Java 8 implementation does.
+ *
+ * @author Thomas Mattel
+ */
+final class PixelDiff {
+	private static Logger logger = LoggerFactory.getLogger(PixelDiff.class);
+	private static final boolean VECTOR_API_AVAILABLE=isVectorApiAvailable();
+
+	private PixelDiff() {}
+
+	/**
+	 * Creates the change mask of the given images, one bit for each pixel, set if the pixel differs from the reference.
+	 * <br>The bit of pixel <code>i</code> is bit <code>i%64</code> of <code>mask[i/64]</code>.
+	 *
+	 * @param intImage the image as RGB int array
+	 * @param intReference the reference image as RGB int array, at least as long as the image
+	 * @return the change mask
+	 */
+	static long[] changeMask(int[] intImage,int[] intReference) {
+		final int length=intImage.length;
+		long[] mask=new long[(length+63)>>>6];
+		int i=0;
+		if(VECTOR_API_AVAILABLE) {
+			i=VectorPixelDiff.changeMask(intImage,intReference,length,mask);
+		}
+		for(;i<length;i++) {
+			if(intImage[i]!=intReference[i]) {
+				mask[i>>>6]|=1L<<i;
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * The Vector API is used if the incubator module has been added, and the number of lanes divides 64, so the bits
+	 * of a vector comparison always fit into one long of the mask.
+	 */
+	private static boolean isVectorApiAvailable() {
+		if(!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+			logger.debug("Vector API not available, add the module jdk.incubator.vector to use it");
+			return false;
+		}
+		try {
+			int lanes=VectorPixelDiff.lanes();
+			logger.debug("Vector API lanes: {}",lanes);
+			return 64%lanes==0;
+		} catch (LinkageError e) {
+			logger.debug("Vector API not available",e);
+			return false;
+		}
+	}
+
+}
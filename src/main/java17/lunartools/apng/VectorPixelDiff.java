@@ -0,0 +1,47 @@
+package lunartools.apng;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The Vector API kernel of PixelDiff, only loaded if the module <code>jdk.incubator.vector</code> is available.
+ *
+ * @author Thomas Mattel
+ */
+final class VectorPixelDiff {
+	private static final VectorSpecies<Integer> SPECIES=IntVector.SPECIES_PREFERRED;
+
+	private VectorPixelDiff() {}
+
+	/** @return the number of pixel compared at once */
+	static int lanes() {
+		return SPECIES.length();
+	}
+
+	/**
+	 * Sets the bits of the changed pixel in the given mask, a whole vector at a time.
+	 * <br>The number of lanes must divide 64.
+	 *
+	 * @param intImage the image as RGB int array
+	 * @param intReference the reference image as RGB int array
+	 * @param length the number of pixel
+	 * @param mask the change mask, all bits cleared
+	 * @return the index of the first pixel not compared, the remaining pixel are left to the caller
+	 */
+	static int changeMask(int[] intImage,int[] intReference,int length,long[] mask) {
+		final int lanes=SPECIES.length();
+		final int upperBound=SPECIES.loopBound(length);
+		int i=0;
+		for(;i<upperBound;i+=lanes) {
+			IntVector image=IntVector.fromArray(SPECIES,intImage,i);
+			IntVector reference=IntVector.fromArray(SPECIES,intReference,i);
+			long bits=image.compare(VectorOperators.NE,reference).toLong();
+			if(bits!=0) {
+				mask[i>>>6]|=bits<<i;
+			}
+		}
+		return i;
+	}
+
+}
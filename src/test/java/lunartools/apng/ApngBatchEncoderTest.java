@@ -0,0 +1,80 @@
+package lunartools.apng;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests of the batch encoder.
+ *
+ * @author Thomas Mattel
+ */
+public class ApngBatchEncoderTest {
+	private static final byte[] PNG_SIGNATURE= {(byte)0x89,'P','N','G','\r','\n',0x1a,'\n'};
+	private static final int NUMBER_OF_JOBS=6;
+
+	/**
+	 * Submits more jobs than the memory budget allows to run at once, then closes the batch encoder right away.
+	 * <br>The jobs waiting for memory must still be run by the pool of the batch encoder.
+	 */
+	@Test
+	public void testCloseRunsWaitingJobs() throws Exception {
+		ApngBuilder apngBuilder=new ApngBuilder();
+		ApngBatchEncoder batchEncoder=new ApngBatchEncoder(1000,2);
+		ArrayList<CompletableFuture<byte[]>> futures=new ArrayList<CompletableFuture<byte[]>>();
+		for(int i=0;i<NUMBER_OF_JOBS;i++) {
+			futures.add(batchEncoder.submit(createPng(apngBuilder,i),1000));
+		}
+		batchEncoder.close();
+		for(int i=0;i<futures.size();i++) {
+			CompletableFuture<byte[]> future=futures.get(i);
+			byte[] pngData=future.get(30,TimeUnit.SECONDS);
+			assertFalse(future.isCompletedExceptionally());
+			assertTrue(pngData.length>PNG_SIGNATURE.length);
+			byte[] signature=new byte[PNG_SIGNATURE.length];
+			System.arraycopy(pngData,0,signature,0,signature.length);
+			assertArrayEquals(PNG_SIGNATURE,signature);
+		}
+		assertEquals(0,batchEncoder.getNumberOfRunningJobs());
+		assertEquals(0,batchEncoder.getReservedMemory());
+	}
+
+	/**
+	 * A closed batch encoder rejects new jobs.
+	 */
+	@Test(expected=IllegalStateException.class)
+	public void testSubmitAfterClose() throws Exception {
+		ApngBuilder apngBuilder=new ApngBuilder();
+		ApngBatchEncoder batchEncoder=new ApngBatchEncoder(1000,1);
+		batchEncoder.close();
+		batchEncoder.submit(createPng(apngBuilder,0),0);
+	}
+
+	private static Png createPng(ApngBuilder apngBuilder,int seed) {
+		Png png=apngBuilder.buildPng(createImage(seed,0));
+		for(int i=1;i<4;i++) {
+			png.addPng(apngBuilder.buildPng(createImage(seed,i)));
+		}
+		return png;
+	}
+
+	private static BufferedImage createImage(int seed,int frame) {
+		BufferedImage bufferedImage=new BufferedImage(64,48,BufferedImage.TYPE_INT_ARGB);
+		for(int y=0;y<bufferedImage.getHeight();y++) {
+			for(int x=0;x<bufferedImage.getWidth();x++) {
+				int rgb=0xff000000|((x*4+seed*16)&0xff)<<16|((y*5+frame*8)&0xff)<<8|((x+y)*3&0xff);
+				bufferedImage.setRGB(x,y,rgb);
+			}
+		}
+		return bufferedImage;
+	}
+
+}